@@ -0,0 +1,178 @@
+package de.eblaas.museum;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generated MET like data shared by the benchmarks, the same seed generates the same data.
+ */
+class BenchmarkData {
+
+    /**
+     * Kinds of raw dimension strings found in the MET CSV file.
+     */
+    enum DimensionCase {
+        /**
+         * One item measured in inches and cm, e.g. "23 1/4 x 18 1/4 in. (59.1 x 46.4 cm)".
+         */
+        SINGLE,
+        /**
+         * Several labeled items separated by line breaks or semicolons.
+         */
+        MULTI,
+        /**
+         * Inch fractions with the metric value in mm, e.g. "7 x 5 in. (178 x 127 mm)".
+         */
+        INCH_MM,
+        /**
+         * Weight only, e.g. "41 oz. 5 dwt. (1282.7 g)".
+         */
+        WEIGHT
+    }
+
+    private static final String[] LABELS = {"Overall: ", "Frame: ", "Image: ", "Sheet: ", "a) ", "b) ", "H. ", ""};
+    private static final String[] ITEM_SEPARATORS = {"\r\n", "; ", "\n"};
+
+    private final Random random;
+
+    BenchmarkData(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Raw dimension strings of a single case.
+     */
+    String[] dimensions(DimensionCase dimensionCase, int size) {
+        var result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = dimension(dimensionCase);
+        }
+        return result;
+    }
+
+    /**
+     * Raw dimension string of a random case, mostly single items like the MET file.
+     */
+    String dimension() {
+        int kind = random.nextInt(10);
+        return dimension(kind < 6 ? DimensionCase.SINGLE : kind < 8 ? DimensionCase.MULTI
+                : kind < 9 ? DimensionCase.INCH_MM : DimensionCase.WEIGHT);
+    }
+
+    String dimension(DimensionCase dimensionCase) {
+        switch (dimensionCase) {
+            case SINGLE:
+                return item(1 + random.nextInt(3), " cm");
+            case MULTI:
+                var items = new StringBuilder();
+                var separator = ITEM_SEPARATORS[random.nextInt(ITEM_SEPARATORS.length)];
+                for (int i = 2 + random.nextInt(3); i > 0; i--) {
+                    items.append(LABELS[random.nextInt(LABELS.length)]).append(item(2 + random.nextInt(2), " cm"));
+                    if (i > 1) {
+                        items.append(separator);
+                    }
+                }
+                return items.toString();
+            case INCH_MM:
+                return item(1 + random.nextInt(3), " mm");
+            case WEIGHT:
+                double grams = 10 + random.nextDouble() * 5000;
+                return (int) (grams / 28.35) + " oz. " + random.nextInt(20) + " dwt. (" + decimal(grams) + " g)";
+            default:
+                throw new IllegalArgumentException(dimensionCase.name());
+        }
+    }
+
+    /**
+     * Dimension of up to 3 lengths in inches followed by the metric lengths in parentheses.
+     */
+    private String item(int lengths, String unit) {
+        var inches = new StringBuilder();
+        var metric = new StringBuilder("(");
+        for (int i = 0; i < lengths; i++) {
+            if (i > 0) {
+                inches.append(" x ");
+                metric.append(" x ");
+            }
+            int sixteenths = 8 + random.nextInt(1600);
+            inches.append(sixteenths / 16);
+            if (sixteenths % 16 != 0) {
+                inches.append(' ').append(sixteenths % 16).append("/16");
+            }
+            double cm = sixteenths * 2.54 / 16;
+            metric.append(unit.equals(" mm") ? Long.toString(Math.round(cm * 10)) : decimal(cm));
+        }
+        return inches + " in. " + metric + unit + ")";
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    /**
+     * Objects with ascending ids and parsed dimensions.
+     */
+    List<MetObject> objects(int size) {
+        var objects = new ArrayList<MetObject>(size);
+        for (long id = 1; objects.size() < size; id += 1 + random.nextInt(3)) {
+            var raw = dimension();
+            objects.add(MetObject.builder().id(id).dimensionRaw(raw).dimension(Dimension.fromString(raw)).build());
+        }
+        return objects;
+    }
+
+    /**
+     * Write a CSV file with the columns of the MET file, every 20th object has no dimensions.
+     */
+    void writeCsv(Path file, int rows) throws IOException {
+        try (var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Object Number,Is Highlight,Is Public Domain,Object ID,Department,Object Name,Title,"
+                    + "Culture,Medium,Dimensions,Credit Line\n");
+            for (int id = 1; id <= rows; id++) {
+                var dimension = id % 20 == 0 ? "Dimensions unavailable" : dimension();
+                writer.write("1979.486." + id + ",False,True," + id + ",Drawings and Prints,Print,"
+                        + "\"Untitled, No. " + id + "\",American,\"Etching, aquatint\",\""
+                        + dimension.replace("\"", "\"\"") + "\",\"Gift of Anonymous, 1979\"\n");
+            }
+        }
+    }
+
+    /**
+     * A new in-memory H2 database, kept till the JVM exits.
+     */
+    static DataSource dataSource(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * A service storing objects in a new in-memory H2 database.
+     */
+    static MetObjectService service(String name) {
+        var dataSource = dataSource(name);
+        return new MetObjectService(new JdbcTemplate(dataSource),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                new QueryMetrics(new SimpleMeterRegistry()));
+    }
+
+    /**
+     * Set a field injected by Spring in the application.
+     */
+    static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        var field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,78 @@
+package de.eblaas.museum;
+
+import com.opencsv.bean.CsvBindByName;
+import com.opencsv.bean.CsvToBeanBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading id and dimensions of all records of a generated CSV file, by the OpenCSV bean binding the import used
+ * before and by {@link MetObjectCsvReader}. The score is the duration of reading the file once, the allocations per
+ * read are reported by the GC profiler as gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvReaderBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    private Path file;
+
+    /**
+     * Record bound by OpenCSV like MetObject was before the import read the file by {@link MetObjectCsvReader}.
+     */
+    public static class CsvRecord {
+
+        @CsvBindByName(column = MetObjectCsvReader.ID_COLUMN, required = true)
+        private long id;
+
+        @CsvBindByName(column = MetObjectCsvReader.DIMENSION_COLUMN)
+        private String dimensionRaw;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("MetObjects", ".csv");
+        new BenchmarkData(42).writeCsv(file, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void openCsv(Blackhole blackhole) throws IOException {
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            var records = new CsvToBeanBuilder<CsvRecord>(reader)
+                    .withType(CsvRecord.class)
+                    .withIgnoreLeadingWhiteSpace(true)
+                    .build()
+                    .iterator();
+            while (records.hasNext()) {
+                var record = records.next();
+                blackhole.consume(MetObject.builder().id(record.id).dimensionRaw(record.dimensionRaw).build());
+            }
+        }
+    }
+
+    @Benchmark
+    public void metObjectCsvReader(Blackhole blackhole) throws IOException {
+        try (var reader = new MetObjectCsvReader(file)) {
+            while (reader.hasNext()) {
+                blackhole.consume(reader.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.BenchmarkData.DimensionCase;
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of raw dimension strings and checks against boundaries, measured per string and per check.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DimensionBenchmark {
+
+    private static final int CORPUS_SIZE = 1024;
+
+    @Param({"SINGLE", "MULTI", "INCH_MM", "WEIGHT"})
+    public String dimensionCase;
+
+    private String[] corpus;
+    private Dimension[] dimensions;
+    private DimensionBoundary[] boundaries;
+
+    @Setup
+    public void setUp() {
+        var data = new BenchmarkData(42);
+        corpus = data.dimensions(DimensionCase.valueOf(dimensionCase), CORPUS_SIZE);
+
+        dimensions = new Dimension[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            dimensions[i] = Dimension.fromString(corpus[i]);
+        }
+
+        var random = new Random(42);
+        boundaries = new DimensionBoundary[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            var boundary = new DimensionBoundary();
+            boundary.setMinHeight(random.nextDouble() * 50);
+            boundary.setMaxHeight(boundary.getMinHeight() + random.nextDouble() * 200);
+            boundary.setMaxWidth(random.nextDouble() * 300);
+            if (random.nextBoolean()) {
+                boundary.setMaxWeight(random.nextDouble() * 5000);
+            }
+            boundaries[i] = boundary;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void fromString(Blackhole blackhole) {
+        for (String raw : corpus) {
+            blackhole.consume(Dimension.fromString(raw));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public int doesItFit() {
+        int fits = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            if (dimensions[i].doesItFit(boundaries[(i * 7) & (CORPUS_SIZE - 1)])) {
+                fits++;
+            }
+        }
+        return fits;
+    }
+}
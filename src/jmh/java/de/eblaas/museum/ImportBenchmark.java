@@ -0,0 +1,113 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.FileImportDatasource.ImportMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end import of a generated CSV file into an in-memory H2 database, from reading the file to the committed
+ * objects. The score is the duration of one import.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"RELOAD", "BULK", "INCREMENTAL"})
+    public String mode;
+
+    @Param({"1"})
+    public int parallelism;
+
+    @Param({"1"})
+    public int partitions;
+
+    @Param({"1", "4"})
+    public int writers;
+
+    @Param({"0"})
+    public int commitBatches;
+
+    private Path file;
+    private MetObjectService service;
+    private ImportCoordinator coordinator;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private volatile CountDownLatch finished;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("MetObjects", ".csv");
+        new BenchmarkData(42).writeCsv(file, rows);
+
+        var dataSource = BenchmarkData.dataSource("import");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        coordinator = new ImportCoordinator(jdbcTemplate, transactionTemplate, "benchmark", 60_000);
+        coordinator.initTables();
+        service = new MetObjectService(new JdbcTemplate(dataSource),
+                transactionTemplate,
+                new QueryMetrics(new SimpleMeterRegistry())) {
+            @Override
+            void importFinished() {
+                super.importFinished();
+                finished.countDown();
+            }
+        };
+    }
+
+    /**
+     * Forget the source of the former import, the same file is imported again instead of reloaded.
+     */
+    @Setup(Level.Invocation)
+    public void forgetImportedSource() {
+        jdbcTemplate.update("update met_import_lease set source_size = null");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Incremental imports after the first one find all objects unchanged, they measure a re-import of the same file.
+     */
+    @Benchmark
+    public void importFile() throws Exception {
+        finished = new CountDownLatch(1);
+
+        var resource = new FileSystemResource(file);
+        var datasource = new FileImportDatasource(resource, service, coordinator,
+                new ImportWatcher(jdbcTemplate, service, Duration.ofSeconds(10)),
+                new SnapshotRestorer(resource, service), transactionTemplate, new SimpleMeterRegistry());
+        BenchmarkData.set(datasource, "mode", ImportMode.valueOf(mode));
+        BenchmarkData.set(datasource, "parallelism", parallelism);
+        BenchmarkData.set(datasource, "partitions", partitions);
+        BenchmarkData.set(datasource, "writers", writers);
+        BenchmarkData.set(datasource, "commitBatches", commitBatches);
+        BenchmarkData.set(datasource, "batchLatency", Duration.ofMillis(100));
+        BenchmarkData.set(datasource, "snapshotPath", "");
+        datasource.importDate();
+
+        if (!finished.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Import not finished");
+        }
+    }
+}
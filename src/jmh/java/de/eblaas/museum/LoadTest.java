@@ -0,0 +1,466 @@
+package de.eblaas.museum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import de.eblaas.museum.QueryBenchmark.BoundaryShape;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the REST API, measuring the latency seen by clients through Tomcat, Spring MVC, Jackson, the connection
+ * pool and the database. Starts the application on an in-memory H2 database loaded with a generated import file, or
+ * runs against the application at {@code --url}.
+ * <p>
+ * Requests of a configurable mix of endpoints and boundary shapes are drawn from a sequence generated by the seed, the
+ * same options send the same requests. A warmup phase is followed by the measured phase:
+ * </p>
+ * <ul>
+ * <li>closed loop: each connection sends the next request when the response of the last one is received. Latencies
+ * are corrected for coordinated omission by the median latency as expected interval, a stalled response counts for
+ * the requests the connection did not send meanwhile.</li>
+ * <li>open loop: requests are scheduled at a fixed rate over all connections, latencies are measured from the
+ * scheduled start. A response later than the schedule delays the next requests of the connection, their latency
+ * includes the delay.</li>
+ * </ul>
+ * Throughput and latency percentiles are reported per request kind and written as JSON to {@code --results}. The
+ * process exits with 1 if an objective of {@code --slo} is missed, to gate releases on it.
+ */
+public class LoadTest {
+
+    /**
+     * Options and defaults, other options are passed to the started application, e.g. {@code --query.engine=memory}.
+     */
+    private static final Map<String, String> OPTIONS = new LinkedHashMap<>();
+
+    static {
+        // objects of the generated import file
+        OPTIONS.put("rows", "100000");
+        OPTIONS.put("seed", "42");
+        // closed or open loop
+        OPTIONS.put("mode", "closed");
+        OPTIONS.put("connections", "8");
+        // requests per second of the open loop
+        OPTIONS.put("rate", "200");
+        OPTIONS.put("warmup", "10s");
+        OPTIONS.put("duration", "30s");
+        // request kinds and weights, fit.<shape> = GET /{id}, list.<shape> = GET / of a boundary shape
+        OPTIONS.put("mix", "fit.OPEN:50,list.NARROW:20,list.HEIGHT:10,list.MAX_ONLY:10,list.OPEN:10");
+        // page size of list requests
+        OPTIONS.put("size", "50");
+        // objectives of all requests, e.g. p99=50ms,p999=200ms,errors=0,throughput=500
+        OPTIONS.put("slo", "");
+        // application to test, empty = start it
+        OPTIONS.put("url", "");
+        OPTIONS.put("results", "");
+    }
+
+    /**
+     * Number of requests generated, the sequence is repeated by longer runs.
+     */
+    static int REQUESTS = 100_000;
+
+    private static final String ALL = "all";
+
+    private static final String[] LIMITS = {"minHeight", "maxHeight", "minWidth", "maxWidth", "minDepth", "maxDepth",
+            "minWeight", "maxWeight"};
+
+    private final Map<String, String> options = new LinkedHashMap<>(OPTIONS);
+    private final List<String> applicationArgs = new ArrayList<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private Request[] requests;
+    private HttpClient client;
+
+    public static void main(String[] args) throws Exception {
+        var loadTest = new LoadTest(args);
+        boolean passed = loadTest.run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    LoadTest(String[] args) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Options have to be --name=value. option=" + arg);
+            }
+            var name = arg.substring(2, separator);
+            if (OPTIONS.containsKey(name)) {
+                options.put(name, arg.substring(separator + 1));
+            } else {
+                applicationArgs.add(arg);
+            }
+        }
+    }
+
+    /**
+     * A request of the generated sequence.
+     */
+    static class Request {
+
+        final String kind;
+        final URI uri;
+
+        Request(String kind, URI uri) {
+            this.kind = kind;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * Latencies recorded by one connection in one phase, merged over all connections.
+     */
+    static class Latencies {
+
+        final Map<String, Histogram> histograms = new TreeMap<>();
+        final Map<String, Long> errors = new TreeMap<>();
+        long nanos;
+
+        void record(String kind, long latency, boolean error) {
+            for (String key : new String[]{kind, ALL}) {
+                histograms.computeIfAbsent(key, k -> new Histogram(3)).recordValue(latency);
+                if (error) {
+                    errors.merge(key, 1L, Long::sum);
+                }
+            }
+        }
+
+        void add(Latencies other) {
+            other.histograms.forEach((kind, histogram) -> histograms.computeIfAbsent(kind, k -> new Histogram(3))
+                    .add(histogram));
+            other.errors.forEach((kind, count) -> errors.merge(kind, count, Long::sum));
+        }
+
+        Latencies corrected(long expectedInterval) {
+            var corrected = new Latencies();
+            histograms.forEach((kind, histogram) ->
+                    corrected.histograms.put(kind, histogram.copyCorrectedForCoordinatedOmission(expectedInterval)));
+            corrected.errors.putAll(errors);
+            corrected.nanos = nanos;
+            return corrected;
+        }
+    }
+
+    boolean run() throws Exception {
+        ConfigurableApplicationContext context = null;
+        Path file = null;
+        try {
+            var url = options.get("url");
+            if (url.isEmpty()) {
+                file = Files.createTempFile("MetObjects", ".csv");
+                context = start(file);
+                url = "http://localhost:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            }
+            requests = requests(URI.create(url));
+            client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            boolean open = options.get("mode").equals("open");
+            System.out.printf("Warmup ... mode=%s connections=%s%s%n", options.get("mode"), options.get("connections"),
+                    open ? " rate=" + options.get("rate") + "/s" : "");
+            phase(duration("warmup"), open);
+
+            System.out.println("Measure ...");
+            var measured = phase(duration("duration"), open);
+            // closed loop: a connection would have sent a request each median latency without stalls
+            long expectedInterval = open || !measured.histograms.containsKey(ALL) ? 0
+                    : Math.max(1, measured.histograms.get(ALL).getValueAtPercentile(50));
+            var corrected = open ? measured : measured.corrected(expectedInterval);
+
+            report(corrected, measured, expectedInterval);
+            return checkObjectives(corrected, measured);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Start the application on an in-memory database and wait for the import of a generated file.
+     */
+    private ConfigurableApplicationContext start(Path file) throws IOException, InterruptedException {
+        int rows = Integer.parseInt(options.get("rows"));
+        new BenchmarkData(Long.parseLong(options.get("seed"))).writeCsv(file, rows);
+
+        var args = new ArrayList<String>();
+        args.add("--server.port=0");
+        args.add("--spring.profiles.active=dev,import");
+        args.add("--spring.datasource.url=jdbc:h2:mem:loadtest");
+        args.add("--import.filepath=" + file);
+        args.add("--import.size=-1");
+        args.add("--import.snapshot=");
+        args.add("--logging.level.de.eblaas.museum=WARN");
+        // options given later win
+        args.addAll(applicationArgs);
+
+        System.out.printf("Start application ... rows=%d%n", rows);
+        long begin = System.nanoTime();
+        var context = new SpringApplicationBuilder(MuseumServiceApplication.class).run(args.toArray(new String[0]));
+        var coordinator = context.getBean(ImportCoordinator.class);
+        long timeout = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+        while (coordinator.completed() == 0) {
+            if (System.nanoTime() > timeout) {
+                context.close();
+                throw new IllegalStateException("Import not finished");
+            }
+            Thread.sleep(100);
+        }
+        System.out.printf("Application started. duration=%dms%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        return context;
+    }
+
+    /**
+     * Generate the request sequence by the seed, kinds are drawn by their weight in the mix.
+     */
+    private Request[] requests(URI base) {
+        var kinds = new ArrayList<String>();
+        var weights = new ArrayList<Integer>();
+        for (String entry : options.get("mix").split(",")) {
+            var parts = entry.trim().split(":");
+            var kind = parts[0].split("\\.");
+            if (parts.length != 2 || kind.length != 2 || !(kind[0].equals("fit") || kind[0].equals("list"))) {
+                throw new IllegalArgumentException("Mix entries have to be fit.<shape>:<weight> or list.<shape>:"
+                        + "<weight>. entry=" + entry);
+            }
+            BoundaryShape.valueOf(kind[1]);
+            kinds.add(parts[0].trim());
+            weights.add(Integer.parseInt(parts[1]));
+        }
+        int total = weights.stream().mapToInt(Integer::intValue).sum();
+        int rows = Integer.parseInt(options.get("rows"));
+        var random = new Random(Long.parseLong(options.get("seed")));
+
+        var result = new Request[REQUESTS];
+        for (int i = 0; i < result.length; i++) {
+            int pick = random.nextInt(total), k = 0;
+            while (pick >= weights.get(k)) {
+                pick -= weights.get(k++);
+            }
+            var kind = kinds.get(k).split("\\.");
+            var query = query(BoundaryShape.valueOf(kind[1]).boundary());
+            var path = kind[0].equals("fit")
+                    ? "/api/v1/objects/" + (1 + random.nextInt(rows)) + (query.isEmpty() ? "" : "?" + query)
+                    : "/api/v1/objects/?" + query + (query.isEmpty() ? "" : "&") + "size=" + options.get("size")
+                    + "&after=" + random.nextInt(rows);
+            result[i] = new Request(kinds.get(k), base.resolve(path));
+        }
+        return result;
+    }
+
+    /**
+     * @return query parameters of the limits set
+     */
+    private static String query(DimensionBoundary boundary) {
+        var defaults = new DimensionBoundary().args();
+        var args = boundary.args();
+        var query = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].equals(defaults[i])) {
+                query.add(LIMITS[i] + "=" + args[i]);
+            }
+        }
+        return String.join("&", query);
+    }
+
+    /**
+     * Send requests on all connections for the duration of a phase.
+     */
+    private Latencies phase(Duration duration, boolean open) throws InterruptedException, ExecutionException {
+        int connections = Integer.parseInt(options.get("connections"));
+        long intervalNanos = open ? (long) (TimeUnit.SECONDS.toNanos(1) / Double.parseDouble(options.get("rate"))) : 0;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long first = sequence.get();
+
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            var futures = new ArrayList<Future<Latencies>>();
+            for (int c = 0; c < connections; c++) {
+                futures.add(executor.submit(() -> open
+                        ? openLoop(start, end, first, intervalNanos)
+                        : closedLoop(end)));
+            }
+            var latencies = new Latencies();
+            for (Future<Latencies> future : futures) {
+                latencies.add(future.get());
+            }
+            latencies.nanos = System.nanoTime() - start;
+            return latencies;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Latencies closedLoop(long end) {
+        var latencies = new Latencies();
+        for (long begin = System.nanoTime(); begin < end; begin = System.nanoTime()) {
+            var request = requests[(int) (sequence.getAndIncrement() % requests.length)];
+            boolean error = !send(request);
+            latencies.record(request.kind, System.nanoTime() - begin, error);
+        }
+        return latencies;
+    }
+
+    private Latencies openLoop(long start, long end, long first, long intervalNanos) throws InterruptedException {
+        var latencies = new Latencies();
+        while (true) {
+            long n = sequence.getAndIncrement();
+            long scheduled = start + (n - first) * intervalNanos;
+            if (scheduled >= end) {
+                return latencies;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            var request = requests[(int) (n % requests.length)];
+            boolean error = !send(request);
+            latencies.record(request.kind, System.nanoTime() - scheduled, error);
+        }
+    }
+
+    /**
+     * @return true if the response status is 2xx
+     */
+    private boolean send(Request request) {
+        try {
+            var response = client.send(HttpRequest.newBuilder(request.uri)
+                            .header("Accept", "application/json")
+                            .timeout(Duration.ofSeconds(30))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void report(Latencies latencies, Latencies uncorrected, long expectedInterval) throws IOException {
+        double seconds = latencies.nanos / 1e9;
+        var kinds = new LinkedHashMap<String, Object>();
+        System.out.printf("%n%-16s %9s %7s %9s %9s %9s %9s %9s%n", "kind", "requests", "errors", "req/s", "p50 ms",
+                "p99 ms", "p999 ms", "max ms");
+        latencies.histograms.forEach((kind, histogram) -> {
+            long requests = uncorrected.histograms.get(kind).getTotalCount();
+            long errors = latencies.errors.getOrDefault(kind, 0L);
+            var result = new LinkedHashMap<String, Object>();
+            result.put("requests", requests);
+            result.put("errors", errors);
+            result.put("throughput", requests / seconds);
+            result.put("p50", millis(histogram.getValueAtPercentile(50)));
+            result.put("p99", millis(histogram.getValueAtPercentile(99)));
+            result.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+            result.put("max", millis(histogram.getMaxValue()));
+            result.put("uncorrectedP99", millis(uncorrected.histograms.get(kind).getValueAtPercentile(99)));
+            kinds.put(kind, result);
+            System.out.printf(Locale.ROOT, "%-16s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", kind, requests, errors,
+                    requests / seconds, result.get("p50"), result.get("p99"), result.get("p999"), result.get("max"));
+        });
+        if (expectedInterval > 0) {
+            System.out.printf(Locale.ROOT, "Corrected for coordinated omission, expected interval %.2f ms, "
+                            + "uncorrected p99 %.2f ms%n", millis(expectedInterval),
+                    millis(uncorrected.histograms.get(ALL).getValueAtPercentile(99)));
+        }
+
+        var results = options.get("results");
+        if (!results.isEmpty()) {
+            var report = new LinkedHashMap<String, Object>();
+            report.put("options", options);
+            report.put("applicationArgs", applicationArgs);
+            report.put("expectedIntervalMs", millis(expectedInterval));
+            report.put("durationMs", TimeUnit.NANOSECONDS.toMillis(latencies.nanos));
+            report.put("kinds", kinds);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(Path.of(results).toFile(), report);
+            System.out.println("Results written. path=" + results);
+        }
+    }
+
+    /**
+     * @param latencies   latencies corrected for coordinated omission
+     * @param uncorrected latencies of the requests sent, counting the throughput
+     * @return true if all requests met the objectives
+     */
+    private boolean checkObjectives(Latencies latencies, Latencies uncorrected) {
+        var slo = options.get("slo");
+        if (slo.isEmpty()) {
+            return true;
+        }
+        var all = latencies.histograms.get(ALL);
+        boolean passed = true;
+        for (String objective : slo.split(",")) {
+            var parts = objective.trim().split("=");
+            double actual, limit;
+            boolean met;
+            switch (parts[0]) {
+                case "p50":
+                case "p99":
+                case "p999":
+                    double percentile = parts[0].equals("p50") ? 50 : parts[0].equals("p99") ? 99 : 99.9;
+                    actual = millis(all.getValueAtPercentile(percentile));
+                    limit = DurationStyle.detectAndParse(parts[1]).toNanos() / 1e6;
+                    met = actual <= limit;
+                    break;
+                case "errors":
+                    actual = latencies.errors.getOrDefault(ALL, 0L);
+                    limit = Long.parseLong(parts[1]);
+                    met = actual <= limit;
+                    break;
+                case "throughput":
+                    actual = uncorrected.histograms.get(ALL).getTotalCount() / (latencies.nanos / 1e9);
+                    limit = Double.parseDouble(parts[1]);
+                    met = actual >= limit;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Objectives are p50, p99, p999, errors and throughput. "
+                            + "objective=" + objective);
+            }
+            System.out.printf(Locale.ROOT, "SLO %-10s %-8s actual %.2f limit %s%n", parts[0], met ? "met" : "MISSED",
+                    actual, parts[1]);
+            passed &= met;
+        }
+        return passed;
+    }
+
+    private Duration duration(String option) {
+        return DurationStyle.detectAndParse(options.get(option));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,132 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import de.eblaas.museum.Dimension.DimensionBoundaryFitResult;
+import de.eblaas.museum.MetObjectService.QueryEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the API queries against an in-memory H2 database preloaded with generated objects.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({"200000"})
+        public int size;
+
+        @Param({"SQL", "MEMORY"})
+        public String engine;
+
+        MetObjectService service;
+        long[] ids;
+
+        @Setup
+        public void setUp() throws ReflectiveOperationException {
+            service = BenchmarkData.service("query");
+            BenchmarkData.set(service, "queryEngine", QueryEngine.valueOf(engine));
+            service.initDb();
+
+            var objects = new BenchmarkData(42).objects(size);
+            for (int from = 0; from < objects.size(); from += MetObjectService.BATCH_SIZE) {
+                service.batchInsert(objects.subList(from, Math.min(from + MetObjectService.BATCH_SIZE, objects.size())));
+            }
+            service.loadColumnsOnStartup();
+
+            ids = objects.stream().mapToLong(MetObject::getId).toArray();
+        }
+    }
+
+    /**
+     * Ids of checked objects, hot ids are a small set of popular objects.
+     */
+    @State(Scope.Thread)
+    public static class Ids {
+
+        @Param({"UNIFORM", "HOT"})
+        public String distribution;
+
+        private final Random random = new Random(42);
+
+        long next(long[] ids) {
+            return ids[random.nextInt(distribution.equals("HOT") ? 1000 : ids.length)];
+        }
+    }
+
+    public enum BoundaryShape {
+        /**
+         * Tight ranges of height, width and depth, few objects fit.
+         */
+        NARROW,
+        /**
+         * A range of height only.
+         */
+        HEIGHT,
+        /**
+         * Maximum height and width, most objects fit.
+         */
+        MAX_ONLY,
+        /**
+         * No limits, all objects fit.
+         */
+        OPEN;
+
+        DimensionBoundary boundary() {
+            var boundary = new DimensionBoundary();
+            switch (this) {
+                case NARROW:
+                    boundary.setMinHeight(20.0);
+                    boundary.setMaxHeight(30.0);
+                    boundary.setMinWidth(20.0);
+                    boundary.setMaxWidth(30.0);
+                    boundary.setMinDepth(10.0);
+                    boundary.setMaxDepth(40.0);
+                    break;
+                case HEIGHT:
+                    boundary.setMinHeight(50.0);
+                    boundary.setMaxHeight(60.0);
+                    break;
+                case MAX_ONLY:
+                    boundary.setMaxHeight(150.0);
+                    boundary.setMaxWidth(150.0);
+                    break;
+                default:
+            }
+            return boundary;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Boundary {
+
+        @Param({"NARROW", "HEIGHT", "MAX_ONLY", "OPEN"})
+        public BoundaryShape shape;
+
+        DimensionBoundary boundary;
+
+        @Setup
+        public void setUp() {
+            boundary = shape.boundary();
+        }
+    }
+
+    @Benchmark
+    public DimensionBoundaryFitResult doesItFit(Database database, Ids ids) {
+        return database.service.doesItFit(ids.next(database.ids), new DimensionBoundary(), true);
+    }
+
+    @Benchmark
+    public List<DimensionBoundaryFitResult> listFittingObjects(Database database, Boundary boundary) {
+        return database.service.listFittingObjects(boundary.boundary, null, 50, true);
+    }
+}
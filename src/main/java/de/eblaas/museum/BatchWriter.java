@@ -0,0 +1,206 @@
+package de.eblaas.museum;
+
+import io.reactivex.schedulers.Schedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Writes the objects of an import in batches on concurrent writers, each writer on a connection of its own.
+ * <p>
+ * Objects are grouped into batches by the producer and handed over to the writers by a queue of one batch per writer.
+ * The producer blocks while the queue is full, at most 2 * writers + 1 batches are held in memory. Batches are sized
+ * to be written in about the target latency, by the average write time per object of the latest batches, within
+ * {@link #MIN_BATCH_SIZE} and {@link #MAX_BATCH_SIZE}.
+ * </p>
+ * Each batch is committed on its own, unless writers commit every n batches in one transaction. A failed writer fails
+ * the producer with the next object added, the other writers stop with the next batch taken.
+ */
+@Slf4j
+class BatchWriter {
+
+    static final int MIN_BATCH_SIZE = 100;
+
+    static final int MAX_BATCH_SIZE = 10_000;
+
+    /**
+     * Weight of the latest batch in the average write time per object.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final List<MetObject> END = List.of();
+
+    private final int writers;
+    private final int commitBatches;
+    private final long latencyNanos;
+    private final TransactionTemplate transactionTemplate;
+    private final Consumer<List<MetObject>> write;
+
+    private final BlockingQueue<List<MetObject>> queue;
+    private final CountDownLatch finished;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final LongAdder batches = new LongAdder();
+
+    private volatile int batchSize = MetObjectService.BATCH_SIZE;
+    private double nanosPerObject;
+
+    /**
+     * Objects added since the last batch was handed over, accessed by the producer only.
+     */
+    private List<MetObject> pending = new ArrayList<>();
+
+    /**
+     * @param writers       number of concurrent writers
+     * @param commitBatches number of batches committed in one transaction, 0 = each batch is committed on its own
+     * @param latency       target write latency of a batch
+     * @param write         writes a batch, called by the writers concurrently
+     */
+    BatchWriter(int writers, int commitBatches, Duration latency, TransactionTemplate transactionTemplate,
+                Consumer<List<MetObject>> write) {
+        this.writers = Math.max(writers, 1);
+        this.commitBatches = commitBatches;
+        this.latencyNanos = latency.toNanos();
+        this.transactionTemplate = transactionTemplate;
+        this.write = write;
+        queue = new ArrayBlockingQueue<>(this.writers);
+        finished = new CountDownLatch(this.writers);
+        for (int i = 0; i < this.writers; i++) {
+            Schedulers.io().scheduleDirect(this::run);
+        }
+    }
+
+    /**
+     * Add an object to the current batch, called in sequence. Blocks while all writers are busy and the queue is full.
+     *
+     * @throws RuntimeException the failure of a writer
+     */
+    void add(MetObject obj) {
+        pending.add(obj);
+        if (pending.size() >= batchSize) {
+            put(pending);
+            pending = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Write the last batch and wait for the writers to finish.
+     *
+     * @throws RuntimeException the failure of a writer
+     */
+    void finish() {
+        if (!pending.isEmpty()) {
+            put(pending);
+            pending = new ArrayList<>();
+        }
+        for (int i = 0; i < writers; i++) {
+            put(END);
+        }
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+        checkFailure();
+        log.info("Writers finished. writers={} batches={} batch size={}", writers, batches.sum(), batchSize);
+    }
+
+    /**
+     * Stop the writers of a failed import, queued batches are dropped.
+     */
+    void cancel() {
+        failure.compareAndSet(null, new IllegalStateException("Import cancelled"));
+        queue.clear();
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    private void put(List<MetObject> batch) {
+        try {
+            while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        var e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void run() {
+        try {
+            boolean more = true;
+            while (more) {
+                more = commitBatches > 0
+                        ? Boolean.TRUE.equals(transactionTemplate.execute(status -> writeBatches(commitBatches)))
+                        : writeBatches(1);
+            }
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * @return false if the writer took the end of the batches or the import failed
+     */
+    private boolean writeBatches(int count) {
+        for (int i = 0; i < count; i++) {
+            var batch = take();
+            if (batch == END) {
+                return false;
+            }
+            long begin = System.nanoTime();
+            write.accept(batch);
+            adapt(batch.size(), System.nanoTime() - begin);
+            batches.increment();
+        }
+        return true;
+    }
+
+    private List<MetObject> take() {
+        try {
+            while (failure.get() == null) {
+                var batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+            }
+            return END;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+    }
+
+    /**
+     * Size the next batches by the write time of a batch, the write time of a batch grows with its size.
+     */
+    private synchronized void adapt(int size, long nanos) {
+        double latest = (double) nanos / size;
+        nanosPerObject = nanosPerObject == 0 ? latest : nanosPerObject + SMOOTHING * (latest - nanosPerObject);
+        batchSize = (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, latencyNanos / nanosPerObject));
+    }
+}
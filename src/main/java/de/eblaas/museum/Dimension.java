@@ -5,10 +5,8 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-import java.util.Arrays;
-import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.Double.MAX_VALUE;
 
@@ -43,150 +41,189 @@ public class Dimension {
     }
 
 
-    final static Pattern H_W_D_W_PATTERN = Pattern.compile(
-            ".*?\\(((?<g1>[\\d|\\.]+)\\sx\\s)?((?<g2>[\\d|\\.]+)\\sx\\s)?((?<g3>[\\d|\\.]+)\\s?(?<dimunit>cm|in.|mm))(,.(?<weight>[\\d|\\.]+).(?<unit>(\\w)*))?.?\\).*");
-    final static Pattern WEIGHT_PATTERN = Pattern.compile(".*?\\(([\\d|\\.]+).*?g\\)");
-
-    final static String RANGE_PATTERN = "\\(([\\d|\\.]+)-([\\d|\\.]+)";
-    final static String MISSING_UNIT_PATTERN = "\\(([\\d|\\.]+)\\)";
-    final static String SEPARATE_VALUES_PATTERN = "\\((\\d+\\.\\d)(\\d+\\.\\d)";
-    final static String VALUES_PATTERN = "\\((\\d+\\.)\\s?(\\d)\\.?";
+    private final static ThreadLocal<DimensionParser> PARSER = ThreadLocal.withInitial(DimensionParser::new);
 
+    /**
+     * Parse a raw MET dimension string, see {@link DimensionParser} for the supported formats.
+     *
+     * @return the dimension normalized to cm and g, null if the string is not parsable
+     */
     static Dimension fromString(String dimensionRaw) {
+        var dimension = PARSER.get().parse(dimensionRaw);
+        return DimensionParser.failure(dimension) == null ? dimension : null;
+    }
 
-        // data cleaning to bring it in a format like (H x W x D cm)
-        var cleaned = dimensionRaw
-                // replace recurring format errors
-                .replaceAll("×|x|X", "x")
-                .replace("–", "-")
-                .replace("  x", " x")
-                .replace(" x. ", " x ")
-                .replace("cm Diam.", "cm")
-                .replace("cm x", "x")
-                .replace("cm H.", "cm")
-                .replace("cm.", "cm")
-                .replace("com", "cm")
-                .replace("  cm", " cm")
-                .replace("..", ".")
-                .replace("( ", "(")
-                .replace("))", ")")
-                // value ranges are transformed into upper limit. e.g. (12.1-25.4)=>(25.4)
-                .replaceAll(RANGE_PATTERN, "($2")
-                // missing units are assumed to be cm. e.g. (12.1)=>(12.1 cm)
-                .replaceAll(MISSING_UNIT_PATTERN, "($1 cm)")
-                // split dimensions after first decimal point e.g. (12.456.3 cm)=>(12.4 x 56.3 cm)
-                .replaceAll(SEPARATE_VALUES_PATTERN, "($1 x $2")
-                // remove spaces between decimal point e.g. 12. 3 cm => 12.3 cm
-                .replaceAll(VALUES_PATTERN, "($1$2")
-                .trim();
-
-        Matcher m;
-        try {
-            // MET objects may consist of multiple items, they get recursively parsed and combined into a single dimension
-            // object, where the maximum of each dimension is used
-            if (cleaned.split("[;|\n]").length > 1) {
-                var dim = Arrays.stream(cleaned.split("[;|\n]"))
-                        .map(String::trim)
-                        // create new dimension for each entry
-                        .map(Dimension::fromString)
-                        .filter(Objects::nonNull)
-                        .reduce(
-                                (d1, d2) -> new Dimension(
-                                        Math.max(d1.height, d2.height),
-                                        Math.max(d1.width, d2.width),
-                                        Math.max(d1.depth, d2.depth),
-                                        Math.max(d1.weight, d2.weight)));
-
-                if (dim.isPresent()) {
-                    return dim.get();
-                }
-
-                // match the cleaned data, if matches extract dimension values and normalize it to cm and g
-            } else if ((m = H_W_D_W_PATTERN.matcher(cleaned)).matches()) {
-                var g1 = m.group("g1");
-                var g2 = m.group("g2");
-                var g3 = m.group("g3");
-                var weightStr = m.group("weight");
-                var weightUnit = m.group("unit");
-                var dimUnit = m.group("dimunit");
-
-                double groupMultiplier = 1;
+    /**
+     * Parse a raw MET dimension string like {@link #fromString(String)}.
+     *
+     * @return the dimension normalized to cm and g, else {@link DimensionParser#NO_MATCH} or
+     * {@link DimensionParser#INVALID_NUMBER}, see {@link DimensionParser#failure(Dimension)}
+     */
+    static Dimension parse(String dimensionRaw) {
+        return PARSER.get().parse(dimensionRaw);
+    }
 
-                if (dimUnit.equals("in.")) {
-                    groupMultiplier = 2.54;
-                }
-                if (dimUnit.equals("mm")) {
-                    groupMultiplier = 0.1;
-                }
 
-                double height, width, depth = -1, weight = -1;
+    /**
+     * DimensionBoundary describes the lower and upper limit for [height, width, depth, weight]
+     */
+    @ToString
+    @Getter
+    @Setter
+    public static class DimensionBoundary {
 
-                // single dimension (e.g diam)
-                if (g1 == null && g2 == null) {
-                    height = width = Double.parseDouble(g3) * groupMultiplier;
+        Double minHeight = -1.0, minWidth = -1.0, minDepth = -1.0, minWeight = -1.0;
+        Double maxHeight = MAX_VALUE, maxWidth = MAX_VALUE, maxDepth = MAX_VALUE, maxWeight = MAX_VALUE;
 
-                    // two dimensions available H x L
-                } else if (g2 == null) {
-                    height = Double.parseDouble(g1) * groupMultiplier;
-                    width = Double.parseDouble(g3) * groupMultiplier;
+        Double[] args() {
+            return new Double[]{minHeight, maxHeight, minWidth, maxWidth, minDepth, maxDepth, minWeight, maxWeight};
+        }
 
-                    // three dimensions H x L x D
-                } else {
-                    height = Double.parseDouble(g1) * groupMultiplier;
-                    width = Double.parseDouble(g2) * groupMultiplier;
-                    depth = Double.parseDouble(g3) * groupMultiplier;
+        /**
+         * @return bit set of the limits differing from the defaults, bit i = {@link #args()}[i], null limits are set
+         */
+        int limits() {
+            var args = args();
+            int limits = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == null || args[i] != (i % 2 == 0 ? -1.0 : MAX_VALUE)) {
+                    limits |= 1 << i;
                 }
+            }
+            return limits;
+        }
 
-                // check if weight is present
-                if (weightStr != null && weightUnit != null) {
-                    double multiplier = 1;
-                    if (weightUnit.equals("kg")) {
-                        multiplier = 1000;
-                    }
-                    if (weightUnit.equals("dwt")) {
-                        multiplier = 1.555;
-                    }
-                    if (weightUnit.equals("oz")) {
-                        multiplier = 28.35;
-                    }
-                    weight = Double.parseDouble(weightStr) * multiplier;
+        /**
+         * @return bit set of the dimensions limited by a min or max boundary, bit 0 = height, 1 = width, 2 = depth,
+         * 3 = weight
+         */
+        int limitedDimensions() {
+            int limits = limits(), dimensions = 0;
+            for (int d = 0; d < 4; d++) {
+                if ((limits >> 2 * d & 3) != 0) {
+                    dimensions |= 1 << d;
                 }
-                return new Dimension(height, width, depth, weight);
-
-                // match a weight entry
-            } else if ((m = WEIGHT_PATTERN.matcher(cleaned)).matches()) {
-                var weight = Double.parseDouble(m.group(1));
-                return new Dimension(-1, -1, -1, weight);
             }
-        } catch (NumberFormatException e) {
-            return null;
+            return dimensions;
         }
-        return null;
     }
 
+    @ToString
+    @Getter
+    @AllArgsConstructor
+    public static class DimensionBoundaryFitResult {
+
+        final boolean fits;
+        final MetObject object;
+    }
 
     /**
-     * DimensionBoundary describes the lower and upper limit for [height, width, depth, weight]
+     * Ids of MET objects to check against the same dimension boundaries.
      */
     @ToString
     @Getter
     @Setter
-    public static class DimensionBoundary {
-
-        Double minHeight = -1.0, minWidth = -1.0, minDepth = -1.0, minWeight = -1.0;
-        Double maxHeight = MAX_VALUE, maxWidth = MAX_VALUE, maxDepth = MAX_VALUE, maxWeight = MAX_VALUE;
+    public static class DimensionBoundaryFitRequest {
 
-        Double[] args() {
-            return new Double[]{minHeight, maxHeight, minWidth, maxWidth, minDepth, maxDepth, minWeight, maxWeight};
-        }
+        List<Long> ids = new ArrayList<>();
+        DimensionBoundary boundary = new DimensionBoundary();
     }
 
+    /**
+     * Fit result of a requested id, found is false if no object with parsable dimensions exists for the id.
+     */
     @ToString
     @Getter
     @AllArgsConstructor
-    public static class DimensionBoundaryFitResult {
+    public static class IdFitResult {
 
+        final long id;
+        final boolean found;
         final boolean fits;
         final MetObject object;
     }
+
+    /**
+     * Distance of an object to a target dimension, summed over the dimensions given by the target. Dimensions missing
+     * in the target (-1) are ignored, dimensions missing in the object count as 0.
+     */
+    public enum DistanceMetric {
+        /**
+         * Euclidean distance in cm and g.
+         */
+        EUCLIDEAN {
+            @Override
+            double term(double difference, double target) {
+                return difference * difference;
+            }
+
+            @Override
+            double distance(double sum) {
+                return Math.sqrt(sum);
+            }
+        },
+        /**
+         * Sum of the differences relative to the target, e.g. 0.1 = 10 % slack in one dimension. Weights and lengths
+         * are compared alike.
+         */
+        RELATIVE {
+            @Override
+            double term(double difference, double target) {
+                return difference / target;
+            }
+
+            @Override
+            double distance(double sum) {
+                return sum;
+            }
+        };
+
+        /**
+         * @param difference absolute difference of a dimension to the target
+         * @return the summand of the dimension, growing with the difference
+         */
+        abstract double term(double difference, double target);
+
+        /**
+         * @return the distance of the sum of the dimension terms
+         */
+        abstract double distance(double sum);
+    }
+
+    /**
+     * Object ranked by its distance to a target dimension, see {@link DistanceMetric}.
+     */
+    @ToString
+    @Getter
+    @AllArgsConstructor
+    public static class RankedObject {
+
+        final double distance;
+        final MetObject object;
+    }
+
+    /**
+     * Number of objects fitting a boundary and their distribution over bins of each dimension.
+     */
+    @ToString
+    @Getter
+    @AllArgsConstructor
+    public static class DimensionStats {
+
+        final long count;
+        final List<HistogramBin> height, width, depth, weight;
+    }
+
+    /**
+     * Fitting objects of a bin, min and max are the smallest and largest value of the bin. Objects missing the
+     * dimension are counted in a bin with min = max = -1.
+     */
+    @ToString
+    @Getter
+    @AllArgsConstructor
+    public static class HistogramBin {
+
+        final double min, max;
+        final long count;
+    }
 }
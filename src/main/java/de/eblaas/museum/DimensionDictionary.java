@@ -0,0 +1,40 @@
+package de.eblaas.museum;
+
+/**
+ * Bounded cache of raw dimension texts by hash, the texts of the dictionary table met_dimensions.
+ * <p>
+ * A text never changes for its hash, entries are neither invalidated nor reloaded by imports. The texts are kept in a
+ * {@link StripedLru}.
+ * </p>
+ */
+class DimensionDictionary {
+
+    private final StripedLru<Long, String> texts;
+
+    DimensionDictionary(int maximumSize) {
+        texts = new StripedLru<>(maximumSize);
+    }
+
+    /**
+     * @return the cached text, null if not cached
+     */
+    String get(long hash) {
+        return texts.get(hash);
+    }
+
+    void put(long hash, String raw) {
+        texts.put(hash, raw);
+    }
+
+    long hits() {
+        return texts.hits();
+    }
+
+    long misses() {
+        return texts.misses();
+    }
+
+    long evictions() {
+        return texts.evictions();
+    }
+}
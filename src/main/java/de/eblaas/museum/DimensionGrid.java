@@ -0,0 +1,516 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import de.eblaas.museum.Dimension.DimensionStats;
+import de.eblaas.museum.Dimension.DistanceMetric;
+import de.eblaas.museum.Dimension.HistogramBin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pre-aggregated counts of the stored objects on a 4D grid of height, width, depth and weight bins, answers count and
+ * histogram queries of a dimension boundary without a database round trip.
+ * <p>
+ * Each dimension is split into up to {@link #BINS} bins holding about the same number of objects (quantiles), so dense
+ * value ranges get narrow bins. Missing dimensions (-1) get a bin of their own. The grid keeps the cumulative counts of
+ * its cells (4D prefix sums), the count of any box of cells takes 16 lookups.
+ * <p>
+ * A boundary splits the bins of each dimension into bins inside, crossing and outside of its limits, decided by the
+ * smallest and largest value of each bin. Cells of bins inside in all dimensions are counted exactly from the
+ * cumulative counts, only the rows of cells crossing a limit are scanned, rows are stored grouped by cell.
+ * </p>
+ * The value ranges of the bins also bound the distance of the rows of a cell to a target dimension, nearest neighbour
+ * queries visit the cells by that bound and stop at the first cell farther than the k-th nearest row found.
+ */
+final class DimensionGrid {
+
+    /**
+     * Maximum number of value bins per dimension, excluding the bin of missing dimensions.
+     */
+    static int BINS = 16;
+
+    private static final int DIMENSIONS = 4;
+
+    private long[] ids;
+    private final double[][] columns = new double[DIMENSIONS][];
+    private int size;
+
+    /**
+     * Bins of each dimension, bin 0 holds missing dimensions, bin b > 0 the values from edges[b - 2] (inclusive) to
+     * edges[b - 1] (exclusive). Bins without rows have min > max.
+     */
+    private final int[] bins = new int[DIMENSIONS];
+    private final double[][] edges = new double[DIMENSIONS][];
+    private final double[][] binMin = new double[DIMENSIONS][], binMax = new double[DIMENSIONS][];
+
+    /**
+     * Rows of cell c are stored from cellStart[c] to cellStart[c + 1], the cell index is the sum of bin * stride.
+     */
+    private final int[] stride = new int[DIMENSIONS];
+    private int[] cellStart = new int[0];
+
+    /**
+     * Rows of the cells with bins below (b0, b1, b2, b3) at the sum of b * cumulativeStride.
+     */
+    private final int[] cumulativeStride = new int[DIMENSIONS];
+    private int[] cumulative = new int[0];
+
+    DimensionGrid(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        ids = new long[capacity];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            columns[d] = new double[capacity];
+        }
+    }
+
+    void add(long id, double height, double width, double depth, double weight) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                columns[d] = Arrays.copyOf(columns[d], size * 2);
+            }
+        }
+        ids[size] = id;
+        columns[0][size] = height;
+        columns[1][size] = width;
+        columns[2][size] = depth;
+        columns[3][size] = weight;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Bin the rows, group them by cell and aggregate the counts, has to be called once all rows are added.
+     */
+    void build() {
+
+        for (int d = 0; d < DIMENSIONS; d++) {
+            edges[d] = quantiles(columns[d]);
+            bins[d] = edges[d].length + 2;
+        }
+        int cells = 1, cumulativeCells = 1;
+        for (int d = DIMENSIONS - 1; d >= 0; d--) {
+            stride[d] = cells;
+            cells *= bins[d];
+            cumulativeStride[d] = cumulativeCells;
+            cumulativeCells *= bins[d] + 1;
+        }
+
+        // group rows by cell (counting sort) and collect the value range of each bin
+        int[] cellOf = new int[size];
+        cellStart = new int[cells + 1];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            binMin[d] = new double[bins[d]];
+            binMax[d] = new double[bins[d]];
+            Arrays.fill(binMin[d], Double.POSITIVE_INFINITY);
+            Arrays.fill(binMax[d], Double.NEGATIVE_INFINITY);
+        }
+        for (int row = 0; row < size; row++) {
+            int cell = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double value = columns[d][row];
+                int bin = bin(d, value);
+                binMin[d][bin] = Math.min(binMin[d][bin], value);
+                binMax[d][bin] = Math.max(binMax[d][bin], value);
+                cell += bin * stride[d];
+            }
+            cellOf[row] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = Arrays.copyOf(cellStart, cells);
+        int[] position = cellOf;
+        for (int row = 0; row < size; row++) {
+            position[row] = next[cellOf[row]]++;
+        }
+        long[] groupedIds = new long[size];
+        for (int row = 0; row < size; row++) {
+            groupedIds[position[row]] = ids[row];
+        }
+        ids = groupedIds;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double[] grouped = new double[size];
+            for (int row = 0; row < size; row++) {
+                grouped[position[row]] = columns[d][row];
+            }
+            columns[d] = grouped;
+        }
+
+        // cumulative counts, computed by prefix sums along each dimension
+        cumulative = new int[cumulativeCells];
+        int[] bin = new int[DIMENSIONS];
+        for (int c = 0; c < cells; c++) {
+            int index = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                bin[d] = c / stride[d] % bins[d];
+                index += (bin[d] + 1) * cumulativeStride[d];
+            }
+            cumulative[index] = cellStart[c + 1] - cellStart[c];
+        }
+        for (int d = 0; d < DIMENSIONS; d++) {
+            for (int i = 0; i < cumulativeCells; i++) {
+                if (i / cumulativeStride[d] % (bins[d] + 1) > 0) {
+                    cumulative[i] += cumulative[i - cumulativeStride[d]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the objects fitting the boundary and their distribution over the bins of each dimension.
+     */
+    DimensionStats stats(DimensionBoundary boundary) {
+
+        var args = boundary.args();
+        int[] lo = new int[DIMENSIONS], hi = new int[DIMENSIONS];
+        int[] innerLo = new int[DIMENSIONS], innerHi = new int[DIMENSIONS];
+        long[][] histograms = new long[DIMENSIONS][];
+        boolean empty = false, inner = true;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            histograms[d] = new long[bins[d]];
+            double min = args[2 * d], max = args[2 * d + 1];
+            lo[d] = innerLo[d] = bins[d];
+            hi[d] = innerHi[d] = -1;
+            for (int b = 0; b < bins[d]; b++) {
+                if (binMin[d][b] > binMax[d][b] || binMax[d][b] < min || binMin[d][b] > max) {
+                    continue;
+                }
+                lo[d] = Math.min(lo[d], b);
+                hi[d] = b;
+                if (binMin[d][b] >= min && binMax[d][b] <= max) {
+                    innerLo[d] = Math.min(innerLo[d], b);
+                    innerHi[d] = b;
+                }
+            }
+            empty |= lo[d] > hi[d];
+            inner &= innerLo[d] <= innerHi[d];
+        }
+        if (empty) {
+            return stats(0, histograms);
+        }
+
+        // cells inside of all limits
+        long count = 0;
+        if (inner) {
+            count = count(innerLo, innerHi);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                int[] binLo = innerLo.clone(), binHi = innerHi.clone();
+                for (int b = innerLo[d]; b <= innerHi[d]; b++) {
+                    binLo[d] = binHi[d] = b;
+                    histograms[d][b] = count(binLo, binHi);
+                }
+            }
+        }
+
+        // cells crossing a limit
+        double[] limits = new double[2 * DIMENSIONS];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = args[i];
+        }
+        for (int h = lo[0]; h <= hi[0]; h++) {
+            boolean innerH = inner && h >= innerLo[0] && h <= innerHi[0];
+            for (int w = lo[1]; w <= hi[1]; w++) {
+                boolean innerW = innerH && w >= innerLo[1] && w <= innerHi[1];
+                for (int dp = lo[2]; dp <= hi[2]; dp++) {
+                    boolean innerD = innerW && dp >= innerLo[2] && dp <= innerHi[2];
+                    int cell = h * stride[0] + w * stride[1] + dp * stride[2];
+                    for (int g = lo[3]; g <= hi[3]; g++) {
+                        if (innerD && g == innerLo[3]) {
+                            g = innerHi[3];
+                            continue;
+                        }
+                        int fitting = scan(cellStart[cell + g], cellStart[cell + g + 1], limits);
+                        count += fitting;
+                        histograms[0][h] += fitting;
+                        histograms[1][w] += fitting;
+                        histograms[2][dp] += fitting;
+                        histograms[3][g] += fitting;
+                    }
+                }
+            }
+        }
+        return stats(count, histograms);
+    }
+
+    /**
+     * The k rows fitting the boundary nearest to the target, ordered by distance and id.
+     * <p>
+     * Cells intersecting the boundary are visited in the order of the smallest distance any of their rows can have,
+     * computed from the value ranges of their bins. The k nearest rows seen are kept in a bounded heap, the search ends
+     * at the first cell whose smallest distance exceeds the k-th nearest row. Only the k rows found are sorted.
+     * </p>
+     */
+    Neighbors nearest(DimensionBoundary boundary, Dimension target, DistanceMetric metric, int k) {
+
+        var args = boundary.args();
+        double[] targets = {target.getHeight(), target.getWidth(), target.getDepth(), target.getWeight()};
+        int[] lo = new int[DIMENSIONS], hi = new int[DIMENSIONS];
+        double[][] bounds = new double[DIMENSIONS][];
+        var neighbors = new Neighbors(k);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double min = args[2 * d], max = args[2 * d + 1];
+            bounds[d] = new double[bins[d]];
+            lo[d] = bins[d];
+            hi[d] = -1;
+            for (int b = 0; b < bins[d]; b++) {
+                if (binMin[d][b] > binMax[d][b] || binMax[d][b] < min || binMin[d][b] > max) {
+                    continue;
+                }
+                lo[d] = Math.min(lo[d], b);
+                hi[d] = b;
+                double t = targets[d];
+                double difference = b == 0 ? t : Math.max(0, Math.max(binMin[d][b] - t, t - binMax[d][b]));
+                bounds[d][b] = t < 0 ? 0 : metric.term(difference, t);
+            }
+            if (lo[d] > hi[d]) {
+                return neighbors;
+            }
+        }
+
+        // non-empty cells of the boundary, as a min heap by their smallest distance
+        int capacity = 1;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            capacity *= hi[d] - lo[d] + 1;
+        }
+        double[] cellBounds = new double[capacity];
+        int[] cells = new int[capacity];
+        int n = 0;
+        for (int h = lo[0]; h <= hi[0]; h++) {
+            for (int w = lo[1]; w <= hi[1]; w++) {
+                for (int dp = lo[2]; dp <= hi[2]; dp++) {
+                    for (int g = lo[3]; g <= hi[3]; g++) {
+                        int cell = h * stride[0] + w * stride[1] + dp * stride[2] + g;
+                        if (cellStart[cell] < cellStart[cell + 1]) {
+                            cellBounds[n] = bounds[0][h] + bounds[1][w] + bounds[2][dp] + bounds[3][g];
+                            cells[n++] = cell;
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(cellBounds, cells, i, n);
+        }
+
+        double[] limits = new double[2 * DIMENSIONS];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = args[i];
+        }
+        while (n > 0 && (!neighbors.isFull() || cellBounds[0] <= neighbors.farthest())) {
+            int cell = cells[0];
+            cellBounds[0] = cellBounds[--n];
+            cells[0] = cells[n];
+            siftDown(cellBounds, cells, 0, n);
+            for (int row = cellStart[cell]; row < cellStart[cell + 1]; row++) {
+                if (fits(row, limits)) {
+                    double sum = 0;
+                    for (int d = 0; d < DIMENSIONS; d++) {
+                        double t = targets[d], value = columns[d][row];
+                        if (t >= 0) {
+                            sum += metric.term(value < 0 ? t : Math.abs(value - t), t);
+                        }
+                    }
+                    neighbors.offer(ids[row], sum);
+                }
+            }
+        }
+        neighbors.sort(metric);
+        return neighbors;
+    }
+
+    private static void siftDown(double[] keys, int[] values, int i, int n) {
+        double key = keys[i];
+        int value = values[i];
+        for (int child = 2 * i + 1; child < n; i = child, child = 2 * i + 1) {
+            if (child + 1 < n && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            keys[i] = keys[child];
+            values[i] = values[child];
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Nearest rows of a query, a max heap of up to k rows by distance and id until sorted.
+     */
+    static final class Neighbors {
+
+        private final long[] ids;
+        private final double[] distances;
+        private int size;
+
+        private Neighbors(int k) {
+            ids = new long[k];
+            distances = new double[k];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long id(int index) {
+            return ids[index];
+        }
+
+        double distance(int index) {
+            return distances[index];
+        }
+
+        private boolean isFull() {
+            return size == ids.length;
+        }
+
+        private double farthest() {
+            return distances[0];
+        }
+
+        private void offer(long id, double distance) {
+            if (size < ids.length) {
+                ids[size] = id;
+                distances[size] = distance;
+                siftUp(size++);
+            } else if (size > 0 && before(id, distance, 0)) {
+                ids[0] = id;
+                distances[0] = distance;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Sort by distance and id, heap sort in place, and convert the sums of the metric into distances.
+         */
+        private void sort(DistanceMetric metric) {
+            for (int n = size - 1; n > 0; n--) {
+                swap(0, n);
+                siftDown(0, n);
+            }
+            for (int i = 0; i < size; i++) {
+                distances[i] = metric.distance(distances[i]);
+            }
+        }
+
+        private boolean before(long id, double distance, int index) {
+            return distance < distances[index] || distance == distances[index] && id < ids[index];
+        }
+
+        private void siftUp(int i) {
+            for (int parent = (i - 1) / 2; i > 0 && before(ids[parent], distances[parent], i); parent = (i - 1) / 2) {
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int n) {
+            for (int child = 2 * i + 1; child < n; i = child, child = 2 * i + 1) {
+                if (child + 1 < n && before(ids[child], distances[child], child + 1)) {
+                    child++;
+                }
+                if (!before(ids[i], distances[i], child)) {
+                    break;
+                }
+                swap(i, child);
+            }
+        }
+
+        private void swap(int i, int j) {
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
+    }
+
+    /**
+     * Rows of the cells within the inclusive bin ranges.
+     */
+    private long count(int[] lo, int[] hi) {
+        long count = 0;
+        for (int corner = 0; corner < 1 << DIMENSIONS; corner++) {
+            int index = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                index += ((corner & 1 << d) != 0 ? lo[d] : hi[d] + 1) * cumulativeStride[d];
+            }
+            count += (Integer.bitCount(corner) & 1) == 0 ? cumulative[index] : -cumulative[index];
+        }
+        return count;
+    }
+
+    private int scan(int from, int to, double[] limits) {
+        int fitting = 0;
+        for (int row = from; row < to; row++) {
+            fitting += fits(row, limits) ? 1 : 0;
+        }
+        return fitting;
+    }
+
+    private boolean fits(int row, double[] limits) {
+        double[] height = columns[0], width = columns[1], depth = columns[2], weight = columns[3];
+        return height[row] >= limits[0] & height[row] <= limits[1]
+                & width[row] >= limits[2] & width[row] <= limits[3]
+                & depth[row] >= limits[4] & depth[row] <= limits[5]
+                & weight[row] >= limits[6] & weight[row] <= limits[7];
+    }
+
+    private DimensionStats stats(long count, long[][] histograms) {
+        return new DimensionStats(count, histogram(0, histograms[0]), histogram(1, histograms[1]),
+                histogram(2, histograms[2]), histogram(3, histograms[3]));
+    }
+
+    /**
+     * Bins with rows, empty bins of the grid are left out.
+     */
+    private List<HistogramBin> histogram(int d, long[] counts) {
+        var histogram = new ArrayList<HistogramBin>(bins[d]);
+        for (int b = 0; b < bins[d]; b++) {
+            if (binMin[d][b] <= binMax[d][b]) {
+                histogram.add(new HistogramBin(binMin[d][b], binMax[d][b], counts[b]));
+            }
+        }
+        return histogram;
+    }
+
+    private int bin(int d, double value) {
+        if (value < 0) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(edges[d], value);
+        return 1 + (index >= 0 ? index + 1 : -index - 1);
+    }
+
+    /**
+     * Distinct quantiles of the present values splitting them into up to {@link #BINS} bins.
+     */
+    private double[] quantiles(double[] column) {
+        double[] values = new double[size];
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            if (column[row] >= 0) {
+                values[n++] = column[row];
+            }
+        }
+        Arrays.sort(values, 0, n);
+        double[] quantiles = new double[Math.max(BINS - 1, 0)];
+        int count = 0;
+        for (int k = 1; k < BINS && n > 0; k++) {
+            double quantile = values[(int) ((long) k * n / BINS)];
+            if (quantile > values[0] && (count == 0 || quantile > quantiles[count - 1])) {
+                quantiles[count++] = quantile;
+            }
+        }
+        return Arrays.copyOf(quantiles, count);
+    }
+}
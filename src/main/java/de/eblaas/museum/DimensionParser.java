@@ -0,0 +1,555 @@
+package de.eblaas.museum;
+
+import java.util.Arrays;
+
+/**
+ * Single pass parser for raw MET dimension strings.
+ * <p>
+ * The raw text is cleaned into a reusable char buffer while it is read, value ranges, missing units and glued values
+ * are resolved in a second scan after each opening bracket and the cleaned buffer is finally tokenized by a hand
+ * written state machine. No regular expressions and no intermediate strings are used, a parse allocates at most one
+ * {@link Dimension}, failures are reported by the shared constants {@link #NO_MATCH} and {@link #INVALID_NUMBER}.
+ * <p>
+ * Supported formats (see README):
+ * <ul>
+ *     <li>(H x W x D cm|in.|mm, weight kg|g|dwt|oz)</li>
+ *     <li>(weight g)</li>
+ *     <li>multiple items separated by ';', '|' or new lines, combined to the max of each dimension</li>
+ * </ul>
+ * <p>
+ * Instances are NOT thread safe, use {@link Dimension#fromString(String)}.
+ * </p>
+ */
+final class DimensionParser {
+
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // recurring format errors, applied in this order on the cleaned output e.g. (12 cm x 14 cm)=>(12 x 14 cm)
+    private static final char[][] TARGETS = chars(
+            "  x", " x. ", "cm Diam.", "cm x", "cm H.", "cm.", "com", "  cm", "..", "( ", "))");
+    private static final char[][] REPLACEMENTS = chars(
+            " x", " x ", "cm", "x", "cm", "cm", "cm", " cm", ".", "(", ")");
+    // bit set of the targets ending with a character, only a few characters can complete a target
+    private static final int[] TARGETS_BY_LAST_CHAR = new int[128];
+
+    static {
+        for (int r = 0; r < TARGETS.length; r++) {
+            TARGETS_BY_LAST_CHAR[TARGETS[r][TARGETS[r].length - 1]] |= 1 << r;
+        }
+    }
+
+    private char[] input = new char[256];
+    private char[] cleaned = new char[256];
+    private char[] buf = new char[256];
+    private int length;
+    private final int[] fences = new int[TARGETS.length];
+
+    // values of the last matched item
+    private double height, width, depth, weight;
+    // an item of the current parse matched a format, but a value was no valid number
+    private boolean invalidNumber;
+
+    /**
+     * Result of a text no supported format was found in, compared by identity.
+     */
+    static final Dimension NO_MATCH = new Dimension(-1, -1, -1, -1);
+
+    /**
+     * Result of a text matching a format with a value that is no valid number, compared by identity.
+     */
+    static final Dimension INVALID_NUMBER = new Dimension(-1, -1, -1, -1);
+
+    /**
+     * @return the reason a result of {@link #parse(String)} is no parsed dimension, null if it is one
+     */
+    static ParseFailure failure(Dimension parsed) {
+        return parsed == NO_MATCH ? ParseFailure.NO_MATCH
+                : parsed == INVALID_NUMBER ? ParseFailure.INVALID_NUMBER : null;
+    }
+
+    /**
+     * @return the parsed dimension, else {@link #NO_MATCH} or {@link #INVALID_NUMBER}
+     */
+    Dimension parse(String dimensionRaw) {
+        invalidNumber = false;
+        int n = dimensionRaw.length();
+        if (input.length < n) {
+            input = new char[n];
+        }
+        dimensionRaw.getChars(0, n, input, 0);
+        clean(input, 0, n);
+        resolveValues();
+        int start = trimStart(0, length), end = trimEnd(0, length);
+
+        if (!isMultiItem(start, end)) {
+            return matchItem(start, end) ? new Dimension(height, width, depth, weight) : failure();
+        }
+
+        // MET objects may consist of multiple items, they get cleaned again and combined into a single dimension
+        // object, where the maximum of each dimension is used
+        char[] items = input;
+        if (items.length < end - start) {
+            items = input = new char[end - start];
+        }
+        System.arraycopy(buf, start, items, 0, end - start);
+        end -= start;
+
+        double maxHeight = 0, maxWidth = 0, maxDepth = 0, maxWeight = 0;
+        boolean found = false;
+        for (int from = 0; from < end; ) {
+            int to = from;
+            while (to < end && !isSeparator(items[to])) {
+                to++;
+            }
+            clean(items, from, to);
+            resolveValues();
+            if (matchItem(trimStart(0, length), trimEnd(0, length))) {
+                maxHeight = found ? Math.max(maxHeight, height) : height;
+                maxWidth = found ? Math.max(maxWidth, width) : width;
+                maxDepth = found ? Math.max(maxDepth, depth) : depth;
+                maxWeight = found ? Math.max(maxWeight, weight) : weight;
+                found = true;
+            }
+            from = to + 1;
+        }
+        return found ? new Dimension(maxHeight, maxWidth, maxDepth, maxWeight) : failure();
+    }
+
+    private Dimension failure() {
+        return invalidNumber ? INVALID_NUMBER : NO_MATCH;
+    }
+
+    /**
+     * Copy the raw chars into {@link #cleaned} and fix recurring format errors on the fly. Each replacement is
+     * checked when its last character was written, a replacement only feeds into the replacements after it.
+     */
+    private void clean(char[] raw, int from, int to) {
+        if (cleaned.length < to - from) {
+            cleaned = new char[to - from];
+        }
+        Arrays.fill(fences, 0);
+        length = 0;
+        for (int i = from; i < to; i++) {
+            char c = raw[i];
+            if (c == '×' || c == 'X') {
+                c = 'x';
+            } else if (c == '–') {
+                c = '-';
+            }
+            cleaned[length++] = c;
+
+            for (int r = nextTarget(c, 0); r < TARGETS.length; r = nextTarget(cleaned[length - 1], r + 1)) {
+                char[] target = TARGETS[r];
+                int at = length - target.length;
+                if (at >= fences[r] && endsWith(target, at)) {
+                    char[] replacement = REPLACEMENTS[r];
+                    System.arraycopy(replacement, 0, cleaned, at, replacement.length);
+                    length = at + replacement.length;
+                    // a replacement is not matched again by its own and all preceding rules
+                    for (int p = 0; p <= r; p++) {
+                        fences[p] = length;
+                    }
+                    for (int p = r + 1; p < fences.length; p++) {
+                        fences[p] = Math.min(fences[p], length);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the first target starting at the given index ending with c, else the number of targets
+     */
+    private static int nextTarget(char c, int from) {
+        int targets = c < TARGETS_BY_LAST_CHAR.length ? TARGETS_BY_LAST_CHAR[c] >>> from : 0;
+        return targets == 0 ? TARGETS.length : from + Integer.numberOfTrailingZeros(targets);
+    }
+
+    private boolean endsWith(char[] target, int at) {
+        if (at < 0) {
+            return false;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (cleaned[at + i] != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the first value after each opening bracket of {@link #cleaned} into {@link #buf}:
+     * <ul>
+     *     <li>value ranges are transformed into upper limit. e.g. (12.1-25.4)=>(25.4)</li>
+     *     <li>missing units are assumed to be cm. e.g. (12.1)=>(12.1 cm)</li>
+     *     <li>split dimensions after first decimal point e.g. (12.456.3 cm)=>(12.4 x 56.3 cm)</li>
+     *     <li>remove spaces between decimal point e.g. 12. 3 cm => 12.3 cm</li>
+     * </ul>
+     */
+    private void resolveValues() {
+        int n = length;
+        char[] in = cleaned;
+        length = 0;
+        ensureCapacity(n);
+
+        int i = 0;
+        while (i < n) {
+            int bracket = i;
+            while (bracket < n && in[bracket] != '(') {
+                bracket++;
+            }
+            put(in, i, Math.min(bracket + 1, n));
+            i = bracket + 1;
+            int run;
+            if (i >= n || (run = valueLength(in, i, n)) == 0) {
+                continue;
+            }
+
+            int from = i, to = i + run;
+            int upper = to < n && in[to] == '-' ? valueLength(in, to + 1, n) : 0;
+            if (upper > 0) {
+                from = to + 1;
+                to = from + upper;
+            }
+            boolean missingUnit = to < n && in[to] == ')';
+            i = to;
+
+            // D1.dD2.d => D1.d x D2.d
+            int d1 = digitLength(in, from, to);
+            int d2 = d1 > 0 && from + d1 + 2 < to && in[from + d1] == '.' && isDigit(in[from + d1 + 1])
+                    ? digitLength(in, from + d1 + 2, to) : 0;
+            int separated = from + d1 + 2 + d2;
+            if (d2 > 0 && separated + 1 < to && in[separated] == '.' && isDigit(in[separated + 1])) {
+                put(in, from, from + d1 + 2);
+                put(' ');
+                put('x');
+                put(' ');
+                put(in, from + d1 + 2, to);
+
+            } else if (d1 > 0 && from + d1 < to && in[from + d1] == '.') {
+                int fraction = from + d1 + 1;
+                if (fraction < to && isDigit(in[fraction])) {
+                    // D1.d.D2 => D1.dD2
+                    put(in, from, fraction + 1);
+                    put(in, fraction + 1 < to && in[fraction + 1] == '.' ? fraction + 2 : fraction + 1, to);
+                } else if (fraction == to && !missingUnit
+                        && i + 1 < n && isWhitespace(in[i]) && isDigit(in[i + 1])) {
+                    // D1. d => D1.d
+                    put(in, from, to);
+                    put(in[i + 1]);
+                    i += i + 2 < n && in[i + 2] == '.' ? 3 : 2;
+                } else {
+                    put(in, from, to);
+                }
+            } else {
+                put(in, from, to);
+            }
+
+            if (missingUnit) {
+                put(' ');
+                put('c');
+                put('m');
+            }
+        }
+    }
+
+    private boolean isMultiItem(int start, int end) {
+        int i = start;
+        while (i < end && !isSeparator(buf[i])) {
+            i++;
+        }
+        for (; i < end; i++) {
+            if (!isSeparator(buf[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int trimStart(int from, int to) {
+        while (from < to && buf[from] <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && buf[to - 1] <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Match a single item, format like (H x W x D cm, weight unit) or (weight g). The first opening bracket a
+     * complete dimension can be read from is used.
+     *
+     * @return true and the values in {@link #height}, {@link #width}, {@link #depth} and {@link #weight} if the item
+     * matched and all values are valid numbers
+     */
+    private boolean matchItem(int start, int end) {
+        for (int i = start; i < end && !isLineTerminator(buf[i]); i++) {
+            if (buf[i] == '(' && matchDimensions(i + 1, end)) {
+                return valid(!Double.isNaN(height) && !Double.isNaN(width) && !Double.isNaN(depth)
+                        && !Double.isNaN(weight));
+            }
+        }
+        return matchWeight(start, end);
+    }
+
+    private boolean valid(boolean validNumbers) {
+        invalidNumber |= !validNumbers;
+        return validNumbers;
+    }
+
+    private boolean matchDimensions(int pos, int end) {
+        int first = valueLength(buf, pos, end);
+        int second = 0;
+        if (first > 0 && isValueSeparator(pos + first, end)) {
+            second = valueLength(buf, pos + first + 3, end);
+        }
+        if (second > 0) {
+            int third = pos + first + 3 + second;
+            if (isValueSeparator(third, end) && matchUnit(third + 3, end)) {
+                double scale = unitScale;
+                height = parseValue(pos, pos + first, scale);
+                width = parseValue(pos + first + 3, third, scale);
+                depth = parseValue(third + 3, third + 3 + valueLength(buf, third + 3, end), scale);
+                return true;
+            }
+            if (matchUnit(pos + first + 3, end)) {
+                double scale = unitScale;
+                height = parseValue(pos, pos + first, scale);
+                width = parseValue(pos + first + 3, third, scale);
+                depth = -1;
+                return true;
+            }
+            return false;
+        }
+        if (matchUnit(pos, end)) {
+            height = width = parseValue(pos, pos + first, unitScale);
+            depth = -1;
+            return true;
+        }
+        return false;
+    }
+
+    // results of matchUnit, cm = 0, mm = -1 (decimal shift), in. = 2.54
+    private double unitScale;
+
+    /**
+     * Match 'value[ ]cm|in.|mm' and the optional weight ', value unit' followed by a closing bracket.
+     */
+    private boolean matchUnit(int pos, int end) {
+        int value = valueLength(buf, pos, end);
+        if (value == 0) {
+            return false;
+        }
+        int unit = pos + value;
+        if (unit < end && isWhitespace(buf[unit])) {
+            unit++;
+        }
+        if (unit + 1 >= end) {
+            return false;
+        }
+        char c1 = buf[unit], c2 = buf[unit + 1];
+        if (c1 == 'c' && c2 == 'm') {
+            unitScale = 0;
+        } else if (c1 == 'm' && c2 == 'm') {
+            unitScale = -1;
+        } else if (c1 == 'i' && c2 == 'n' && unit + 2 < end && !isLineTerminator(buf[unit + 2])) {
+            unitScale = buf[unit + 2] == '.' ? 2.54 : 0;
+            unit++;
+        } else {
+            return false;
+        }
+        int rest = unit + 2;
+        weight = -1;
+        return matchWeightUnit(rest, end) || matchClosingBracket(rest, end);
+    }
+
+    /**
+     * Match ',.weight.unit' followed by a closing bracket, any character may be used as a separator.
+     */
+    private boolean matchWeightUnit(int pos, int end) {
+        if (pos + 2 >= end || buf[pos] != ',' || isLineTerminator(buf[pos + 1])) {
+            return false;
+        }
+        int from = pos + 2;
+        for (int to = from + valueLength(buf, from, end); to > from; to--) {
+            if (to >= end || isLineTerminator(buf[to])) {
+                continue;
+            }
+            int unitFrom = to + 1;
+            int unitTo = unitFrom;
+            while (unitTo < end && isWordChar(buf[unitTo])) {
+                unitTo++;
+            }
+            for (; unitTo >= unitFrom; unitTo--) {
+                if (matchClosingBracket(unitTo, end)) {
+                    weight = parseValue(from, to, 0) * weightMultiplier(unitFrom, unitTo);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private double weightMultiplier(int from, int to) {
+        int n = to - from;
+        if (n == 2 && buf[from] == 'k' && buf[from + 1] == 'g') {
+            return 1000;
+        }
+        if (n == 3 && buf[from] == 'd' && buf[from + 1] == 'w' && buf[from + 2] == 't') {
+            return 1.555;
+        }
+        if (n == 2 && buf[from] == 'o' && buf[from + 1] == 'z') {
+            return 28.35;
+        }
+        return 1;
+    }
+
+    /**
+     * Match '[.])' with no line terminator till the end.
+     */
+    private boolean matchClosingBracket(int pos, int end) {
+        if (pos + 1 < end && !isLineTerminator(buf[pos]) && buf[pos + 1] == ')' && noLineTerminator(pos + 2, end)) {
+            return true;
+        }
+        return pos < end && buf[pos] == ')' && noLineTerminator(pos + 1, end);
+    }
+
+    /**
+     * Match a weight entry like '12 oz. (340.2 g)', the item has to end with 'g)'.
+     */
+    private boolean matchWeight(int start, int end) {
+        if (end - start < 2 || buf[end - 2] != 'g' || buf[end - 1] != ')' || !noLineTerminator(start, end)) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            int value;
+            if (buf[i] == '(' && (value = valueLength(buf, i + 1, end)) > 0 && i + 1 + value <= end - 2) {
+                height = width = depth = -1;
+                weight = parseValue(i + 1, i + 1 + value, 0);
+                return valid(!Double.isNaN(weight));
+            }
+        }
+        return false;
+    }
+
+    private boolean isValueSeparator(int pos, int end) {
+        return pos + 2 < end && isWhitespace(buf[pos]) && buf[pos + 1] == 'x' && isWhitespace(buf[pos + 2]);
+    }
+
+    private boolean noLineTerminator(int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (isLineTerminator(buf[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a decimal value of {@link #buf} and convert it by the given unit scale.
+     *
+     * @param scale 0 = as is, negative = decimal shift (mm to cm), else multiplier
+     * @return the value or NaN if it is not a valid number
+     */
+    private double parseValue(int from, int to, double scale) {
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean dot = false;
+        for (int i = from; i < to; i++) {
+            char c = buf[i];
+            if (c == '.') {
+                if (dot) {
+                    return Double.NaN;
+                }
+                dot = true;
+            } else {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (dot) {
+                    fraction++;
+                }
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        int exponent = scale < 0 ? fraction - (int) scale : fraction;
+        double value;
+        if (digits <= MAX_FAST_DIGITS && exponent < POW10.length) {
+            // exact for up to 15 digits, same result as Double.parseDouble
+            value = mantissa / POW10[exponent];
+        } else {
+            value = Double.parseDouble(new String(buf, from, to - from) + "E" + (fraction - exponent));
+        }
+        return scale > 0 ? value * scale : value;
+    }
+
+    private void ensureCapacity(int n) {
+        if (buf.length < n) {
+            buf = new char[Math.max(n, buf.length * 2)];
+        }
+    }
+
+    private void put(char c) {
+        ensureCapacity(length + 1);
+        buf[length++] = c;
+    }
+
+    private void put(char[] source, int from, int to) {
+        ensureCapacity(length + to - from);
+        System.arraycopy(source, from, buf, length, to - from);
+        length += to - from;
+    }
+
+    private static int valueLength(char[] chars, int from, int to) {
+        int i = from;
+        while (i < to && (isDigit(chars[i]) || chars[i] == '.')) {
+            i++;
+        }
+        return i - from;
+    }
+
+    private static int digitLength(char[] chars, int from, int to) {
+        int i = from;
+        while (i < to && isDigit(chars[i])) {
+            i++;
+        }
+        return i - from;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ';' || c == '|' || c == '\n';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static char[][] chars(String... values) {
+        var result = new char[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i].toCharArray();
+        }
+        return result;
+    }
+}
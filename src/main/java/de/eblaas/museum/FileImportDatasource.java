@@ -1,18 +1,35 @@
 package de.eblaas.museum;
 
-import com.opencsv.bean.CsvToBeanBuilder;
+import de.eblaas.museum.ImportCoordinator.Partition;
+import de.eblaas.museum.ImportCoordinator.Source;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
+import lombok.AllArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static de.eblaas.museum.MetObjectService.BATCH_SIZE;
 import static org.apache.logging.log4j.util.Strings.isNotBlank;
@@ -27,28 +44,137 @@ public class FileImportDatasource {
     private static String MISSING_DIM = "Dimensions unavailable";
     private static String MISSING_DIM2 = "Dimension unavailable";
 
+    /**
+     * Result of objects stored unchanged by a former import, they are not parsed. Compared by identity.
+     */
+    private static final Dimension UNCHANGED = new Dimension(-1, -1, -1, -1);
+
+    /**
+     * Maximum number of distinct raw dimension texts memoized with their parse result during an import.
+     */
+    static int MEMO_SIZE = 100_000;
+
+    /**
+     * Number of objects parsed ahead in one task by a parse worker.
+     */
+    static int PARSE_CHUNK = 1000;
+
+    /**
+     * Interval of instances waiting for the import of another instance to check the lease and claim partitions.
+     */
+    static long POLL_MILLIS = 1000;
+
     private final Resource resource;
     private final MetObjectService service;
+    private final ImportCoordinator coordinator;
+    private final ImportWatcher watcher;
+    private final SnapshotRestorer restorer;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
 
     @Value("${import.size}")
     private long importSize;
 
     /**
-     * Stream file content line by line
+     * Number of workers parsing dimensions, 1 = parse in the import thread. Workers of a partitioned import stage a
+     * partition each.
+     */
+    @Value("${import.parallelism:1}")
+    private int parallelism;
+
+    /**
+     * Number of byte ranges the file is split into, staged concurrently by the workers of all instances sharing the
+     * database, 1 = no partitions. Partitioned imports load the staging table like bulk imports, see
+     * {@link ImportCoordinator}.
+     */
+    @Value("${import.partitions:1}")
+    private int partitions;
+
+    /**
+     * Number of connections writing batches of objects concurrently, see {@link BatchWriter}.
+     */
+    @Value("${import.writers:1}")
+    private int writers;
+
+    /**
+     * Number of batches a writer commits in one transaction, 0 = each batch is committed on its own.
+     */
+    @Value("${import.commit-batches:0}")
+    private int commitBatches;
+
+    /**
+     * Target latency of writing a batch, the batch size adapts to the observed write latency.
+     */
+    @Value("${import.batch-latency:100ms}")
+    private Duration batchLatency;
+
+    @Value("${import.mode:reload}")
+    private ImportMode mode;
+
+    /**
+     * Snapshot file of the imported objects, empty if no snapshot is used, see {@link ObjectSnapshot}.
+     */
+    @Value("${import.snapshot:}")
+    private String snapshotPath;
+
+    /**
+     * Store the raw dimension texts in the snapshot, objects restored without them have no raw dimensions.
+     */
+    @Value("${import.snapshot-raw:true}")
+    private boolean snapshotRaw;
+
+    /**
+     * Import file and size limit of the import led by this instance, null if not leading.
+     */
+    private Source source;
+
+    enum ImportMode {
+        /**
+         * Drop the table and insert objects into the indexed table, readers see a partially loaded table.
+         */
+        RELOAD,
+        /**
+         * Load objects into an unindexed staging table, index and swap it in when finished. Readers see the former
+         * objects till the import finished.
+         */
+        BULK,
+        /**
+         * Keep the stored objects, insert new and update changed objects, delete objects gone from the file. Objects
+         * with unchanged raw dimensions are detected by a stored hash and neither parsed nor written, a restarted
+         * import skips the objects committed before it was interrupted.
+         */
+        INCREMENTAL
+    }
+
+    /**
+     * Stream file content record by record, only id and dimensions are read
      */
     private Flowable<MetObject> streamFileContent(Resource resource) {
 
         return Flowable.using(
-                () -> new BufferedReader(new FileReader(resource.getFile())),
-                reader -> Flowable.fromIterable(() -> new CsvToBeanBuilder<MetObject>(reader)
-                        .withType(MetObject.class)
-                        .withIgnoreLeadingWhiteSpace(true)
-                        .build().iterator()),
-                BufferedReader::close
+                () -> new MetObjectCsvReader(resource.getFile().toPath()),
+                reader -> Flowable.fromIterable(() -> reader),
+                MetObjectCsvReader::close
+        );
+    }
+
+    /**
+     * Stream the records of a partition
+     */
+    private Flowable<MetObject> streamFileContent(Path file, Partition partition) {
+
+        return Flowable.using(
+                () -> new MetObjectCsvReader(file, partition.first, partition.last),
+                reader -> Flowable.fromIterable(() -> reader),
+                MetObjectCsvReader::close
         );
     }
 
 
+    /**
+     * Import the file if this instance gets the import lease, else wait for the instance holding it, see
+     * {@link ImportCoordinator}.
+     */
     @PostConstruct
     public void importDate() {
         log.info("Start importing data ...");
@@ -58,27 +184,558 @@ public class FileImportDatasource {
             return;
         }
 
-        service.initDb();
+        coordinator.initTables();
+        long completed = coordinator.completed();
+        if (!coordinator.acquire()) {
+            log.info("Import led by another instance, wait for it. leader={}", coordinator.leader());
+            Schedulers.io().scheduleDirect(() -> follow(completed));
+            return;
+        }
+        lead();
+    }
+
+    /**
+     * Import the file holding the lease, the lease is renewed till the import finished or failed. A file imported
+     * already with the same size limit is not imported again, the imported objects are reloaded only. A snapshot of the
+     * file restored at startup is stored instead of importing the file, see {@link SnapshotRestorer}.
+     */
+    private void lead() {
+        log.info("Lead import. owner={}", coordinator.owner());
+
+        var renewal = renewal();
+        coordinator.deletePartitions();
+
+        try {
+            source = Source.of(resource.getFile().toPath(), importSize);
+        } catch (IOException e) {
+            log.error("Import failed. path={}", resource.getDescription(), e);
+            release(renewal, false);
+            return;
+        }
+        var snapshot = restorer.take(source);
+        if (source.equals(coordinator.completedSource())) {
+            long completed = coordinator.completed();
+            log.info("Import file imported already, skip import. source={}", source);
+            release(renewal, false);
+            // loaded at startup already, unless the lease was taken over from a failed leader
+            Schedulers.io().scheduleDirect(() -> watcher.reload(completed));
+            return;
+        }
+        coordinator.importStarted();
+
+        if (snapshot != null) {
+            storeSnapshot(snapshot, renewal);
+            return;
+        }
+
+        if (partitions > 1) {
+            if (mode != ImportMode.INCREMENTAL && importSize <= 0) {
+                Schedulers.io().scheduleDirect(() -> importPartitioned(renewal));
+                return;
+            }
+            log.warn("Partitions require mode reload or bulk and no import size, import without partitions.");
+        }
+
+        ImportedObjects imported = null;
+        if (mode == ImportMode.BULK) {
+            service.initStaging();
+        } else if (mode == ImportMode.INCREMENTAL) {
+            service.initDbIfMissing();
+            imported = service.loadImported();
+        } else {
+            service.initDb();
+        }
+
+        var statistics = new ImportStatistics(imported, meterRegistry, mode);
+        var memo = new ParseMemo(MEMO_SIZE);
+        Set<Long> written = ConcurrentHashMap.newKeySet();
+        var writer = new BatchWriter(writers, commitBatches, batchLatency, transactionTemplate,
+                batch -> statistics.insert(batch.size(), () -> insert(batch, statistics.imported, written)));
 
         Flowable.just(resource)
                 // start import in a dedicated thread
                 .observeOn(Schedulers.io())
                 .flatMap(this::streamFileContent)
+                .compose(objects -> parsedObjects(objects, statistics, memo, parallelism))
+                // parsed objects arrive on the computation threads of a parallel parse, hand them to an io thread
+                // to not block a computation thread while all writers are busy
+                .observeOn(Schedulers.io())
+                .doOnComplete(writer::finish)
+                .doOnComplete(() -> finishImport(statistics, memo, mode, renewal))
+                // write batches to database while the next objects are parsed, blocks while all writers are busy
+                .subscribe(writer::add,
+                        e -> {
+                            writer.cancel();
+                            log.error("Import failed. path={}", resource.getDescription(), e);
+                            release(renewal, false);
+                        });
+    }
+
+    /**
+     * Filter and parse the objects read and group them into batches for the database.
+     */
+    private Flowable<List<MetObject>> batches(Flowable<MetObject> objects, ImportStatistics statistics,
+                                              ParseMemo memo, int parallelism) {
+
+        return parsedObjects(objects, statistics, memo, parallelism)
+                // create batches of objects for batch DB insert
+                .buffer(BATCH_SIZE);
+    }
+
+    /**
+     * Filter and parse the objects read, objects without parsable dimensions are dropped. Objects are counted in file
+     * order after parsing, the stage counts and the objects of a limited import do not depend on the parallelism.
+     */
+    private Flowable<MetObject> parsedObjects(Flowable<MetObject> objects, ImportStatistics statistics,
+                                              ParseMemo memo, int parallelism) {
+
+        return parseDimensions(objects, statistics, memo, parallelism)
+                .doOnNext(parsed -> statistics.read.increment())
                 // filter empty dimension strings
-                .filter(obj -> isNotBlank(obj.getDimensionRaw()))
+                .filter(parsed -> statistics.passed(isNotBlank(parsed.obj.getDimensionRaw()), ParseFailure.BLANK))
                 // filter known missing dimension strings
-                .filter(obj -> !obj.getDimensionRaw().equals(MISSING_DIM) && !obj.getDimensionRaw().equals(MISSING_DIM2))
+                .filter(parsed -> statistics.passed(!isUnavailable(parsed.obj.getDimensionRaw()),
+                        ParseFailure.UNAVAILABLE))
+                .doOnNext(parsed -> statistics.filtered.increment())
                 // only objects with parsable dimensions get stored in DB
-                .filter(obj -> obj.validDimension())
+                .filter(statistics::passed)
+                .map(parsed -> parsed.obj)
                 // limit import size if activated
                 .take(importSize > 0 ? importSize : Long.MAX_VALUE)
-                // create batches of objects for batch DB insert
-                .buffer(BATCH_SIZE)
-                .doOnComplete(() -> log.info("Import finished."))
-                // insert batches to database
-                .forEach(service::batchInsert);
+                .doOnNext(statistics::seen)
+                // unchanged objects are not parsed and not written
+                .filter(obj -> obj.getDimension() != null);
     }
 
+    private static boolean isUnavailable(String dimensionRaw) {
+        return dimensionRaw.equals(MISSING_DIM) || dimensionRaw.equals(MISSING_DIM2);
+    }
 
-}
+    /**
+     * Split the file into partitions staged by the workers of all instances, the staging table is swapped in once all
+     * partitions are staged. The statistics cover the partitions staged by this instance.
+     */
+    private void importPartitioned(Disposable renewal) {
+        try {
+            var file = resource.getFile().toPath();
+            long sourceSize = Files.size(file);
+            long begin = System.nanoTime();
+            var offsets = MetObjectCsvReader.partitions(file, partitions);
+            log.info("Split import file. partitions={} duration={}ms", partitions,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+
+            service.initStaging();
+            coordinator.createPartitions(sourceSize, offsets);
+            var statistics = new ImportStatistics(null, meterRegistry, ImportMode.BULK);
+            var memo = new ParseMemo(MEMO_SIZE);
+            stagePartitions(file, sourceSize, statistics, memo);
+            // partitions claimed by other instances, partitions of failed workers are claimed again
+            while (coordinator.unfinishedPartitions() > 0) {
+                await(POLL_MILLIS);
+                stagePartitions(file, sourceSize, statistics, memo);
+            }
+            finishImport(statistics, memo, ImportMode.BULK, renewal);
+        } catch (IOException | RuntimeException e) {
+            log.error("Import failed. path={}", resource.getDescription(), e);
+            release(renewal, false);
+        }
+    }
+
+    /**
+     * Wait for the import led by another instance, stage the partitions of a partitioned import meanwhile. The stored
+     * objects are reloaded once the import finished, the lease of a failed leader is taken over and the file imported
+     * again.
+     */
+    private void follow(long completed) {
+        try {
+            var file = resource.getFile().toPath();
+            long sourceSize = Files.size(file);
+            var statistics = new ImportStatistics(null, meterRegistry, ImportMode.BULK);
+            var memo = new ParseMemo(MEMO_SIZE);
+            var renewal = renewal();
+            while (true) {
+                try {
+                    if (stagePartitions(file, sourceSize, statistics, memo) > 0) {
+                        log.info("Staged partitions. {} memo hits={}", statistics, memo.hits());
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Staging partition failed. path={}", file, e);
+                }
+                if (coordinator.leader() == null) {
+                    long finished = coordinator.completed();
+                    if (finished != completed) {
+                        renewal.dispose();
+                        watcher.reload(finished);
+                        log.info("Import finished by another instance.");
+                        return;
+                    }
+                    if (coordinator.acquire()) {
+                        log.info("Import of another instance failed, import file.");
+                        renewal.dispose();
+                        lead();
+                        return;
+                    }
+                }
+                await(POLL_MILLIS);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Waiting for import failed. path={}", resource.getDescription(), e);
+        }
+    }
+
+    /**
+     * Stage partitions on {@link #parallelism} workers till no partition is left to claim.
+     *
+     * @return number of partitions staged
+     */
+    private int stagePartitions(Path file, long sourceSize, ImportStatistics statistics, ParseMemo memo) {
+
+        int workers = Math.max(parallelism, 1);
+        return Flowable.range(0, workers)
+                .parallel(workers)
+                .runOn(Schedulers.io())
+                .map(worker -> {
+                    int staged = 0;
+                    for (var partition = coordinator.claim(sourceSize); partition != null;
+                         partition = coordinator.claim(sourceSize)) {
+                        stagePartition(file, partition, statistics, memo);
+                        staged++;
+                    }
+                    return staged;
+                })
+                .sequential()
+                .reduce(0, Integer::sum)
+                .blockingGet();
+    }
+
+    /**
+     * Stage a claimed partition in one transaction, see {@link ImportCoordinator#stage(Partition, Runnable)}. The
+     * claim of a failed partition is dropped, the partition is claimed again.
+     */
+    private void stagePartition(Path file, Partition partition, ImportStatistics statistics, ParseMemo memo) {
+
+        log.info("Stage partition ... partition={}", partition);
+
+        var staged = new HashSet<Long>();
+        try {
+            coordinator.stage(partition, () -> batches(streamFileContent(file, partition), statistics, memo, 1)
+                    .blockingForEach(batch -> statistics.insert(batch.size(),
+                            () -> service.stagePartition(batch, staged))));
+        } catch (RuntimeException e) {
+            coordinator.unclaim(partition);
+            throw e;
+        }
+    }
+
+    private Disposable renewal() {
+        long period = coordinator.leaseMillis() / 3;
+        return Schedulers.io().schedulePeriodicallyDirect(coordinator::renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop renewing and release the lease, a failed release leaves the lease to expire. The lease keeps the source of
+     * a completed import, the objects reloaded by this instance are marked as loaded for the watcher.
+     */
+    private void release(Disposable renewal, boolean completed) {
+        renewal.dispose();
+        try {
+            long finished = coordinator.release(completed ? source : null);
+            if (finished != 0) {
+                // reloaded by this instance already
+                watcher.loaded(finished);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Releasing import lease failed. owner={}", coordinator.owner(), e);
+        }
+    }
+
+    private static void await(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+    }
+
+    private void insert(List<MetObject> batch, ImportedObjects imported, Set<Long> written) {
+        if (mode == ImportMode.BULK) {
+            service.bulkInsert(batch, written);
+        } else if (mode == ImportMode.INCREMENTAL) {
+            service.batchUpsert(batch, imported, written);
+        } else {
+            service.batchInsert(batch, written);
+        }
+    }
+
+    private void finishImport(ImportStatistics statistics, ParseMemo memo, ImportMode mode, Disposable renewal) {
+        if (mode == ImportMode.BULK) {
+            service.swapStaging();
+        } else if (mode == ImportMode.INCREMENTAL) {
+            var gone = statistics.imported.unseen();
+            service.batchDelete(gone);
+            statistics.deleted.add(gone.length);
+        }
+        service.importFinished();
+        log.info("Import finished. {} memo hits={}", statistics, memo.hits());
+        if (!snapshotPath.isEmpty()) {
+            writeSnapshot();
+        }
+        release(renewal, true);
+    }
+
+    /**
+     * Store the snapshot restored at startup in the database instead of importing the file, in a dedicated thread like
+     * an import. The database is not loaded if it already stores the objects of the snapshot.
+     */
+    private void storeSnapshot(ObjectSnapshot snapshot, Disposable renewal) {
+        Schedulers.io().scheduleDirect(() -> {
+            try {
+                long begin = System.nanoTime();
+                service.store(snapshot);
+                log.info("Import finished. stored snapshot size={} duration={}ms", snapshot.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                release(renewal, true);
+            } catch (RuntimeException e) {
+                log.error("Import failed. storing snapshot failed", e);
+                release(renewal, false);
+            }
+        });
+    }
+
+    /**
+     * Write a snapshot of the stored objects for the import file, a failed snapshot does not fail the import.
+     */
+    private void writeSnapshot() {
+        var path = Path.of(snapshotPath);
+        try {
+            long begin = System.nanoTime();
+            var snapshot = service.snapshot(source.size, source.modified, source.importSize, snapshotRaw);
+            snapshot.write(path);
+            log.info("Snapshot written. path={} size={} duration={}ms", path, snapshot.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        } catch (IOException | DataAccessException e) {
+            log.warn("Writing snapshot failed. path={}", path, e);
+        }
+    }
 
+    /**
+     * Parse the dimensions of the objects passing the filters. If parallelism is activated chunks of
+     * {@link #PARSE_CHUNK} objects are parsed ahead on parallel workers and merged back in file order, at most one
+     * chunk per worker is parsed ahead. Objects stored unchanged by a former import are not parsed.
+     */
+    private Flowable<ParsedObject> parseDimensions(Flowable<MetObject> objects, ImportStatistics statistics,
+                                                   ParseMemo memo, int parallelism) {
+        if (parallelism <= 1) {
+            return objects.map(obj -> statistics.parse(obj, memo));
+        }
+        return objects
+                .buffer(PARSE_CHUNK)
+                .concatMapEager(chunk -> Flowable.fromCallable(() -> statistics.parse(chunk, memo))
+                        .subscribeOn(Schedulers.computation()), parallelism, 1)
+                .concatMapIterable(parsed -> parsed);
+    }
+
+    /**
+     * Rows and throughput of each import stage. Parse and insert throughput are based on the time spent in the stage,
+     * read and filter throughput on the import duration.
+     * <p>
+     * Rows, parse failures and insert latency are also published as metrics summed over all imports:
+     * museum.import.rows{stage}, museum.import.parse.failures{reason} and museum.import.insert{mode}.
+     * </p>
+     */
+    static class ImportStatistics {
+
+        private final long start = System.nanoTime();
+
+        /**
+         * Objects stored by former imports, null if the import replaces all objects.
+         */
+        final ImportedObjects imported;
+
+        final StageRows read;
+        final StageRows filtered;
+        final StageRows unchanged;
+        final StageRows parsed;
+        final StageRows inserted;
+        final StageRows deleted;
+        private final LongAdder parseNanos = new LongAdder();
+        private final LongAdder insertNanos = new LongAdder();
+        private final Counter[] parseFailures = new Counter[ParseFailure.values().length];
+        private final Timer insertTimer;
+
+        ImportStatistics(ImportedObjects imported, MeterRegistry registry, ImportMode mode) {
+            this.imported = imported;
+            read = new StageRows(registry, "read");
+            filtered = new StageRows(registry, "filtered");
+            unchanged = new StageRows(registry, "unchanged");
+            parsed = new StageRows(registry, "parsed");
+            inserted = new StageRows(registry, "inserted");
+            deleted = new StageRows(registry, "deleted");
+            for (var reason : ParseFailure.values()) {
+                parseFailures[reason.ordinal()] = Counter.builder("museum.import.parse.failures")
+                        .description("Objects dropped for missing or unparsable dimensions")
+                        .tag("reason", reason.name().toLowerCase())
+                        .register(registry);
+            }
+            insertTimer = Timer.builder("museum.import.insert")
+                    .description("Latency of writing a batch of objects")
+                    .tag("mode", mode.name().toLowerCase())
+                    .register(registry);
+        }
+
+        /**
+         * @return passed, else the object is counted as parse failure for the reason
+         */
+        boolean passed(boolean passed, ParseFailure reason) {
+            if (!passed) {
+                parseFailures[reason.ordinal()].increment();
+            }
+            return passed;
+        }
+
+        /**
+         * Count the parse result of an object, called in sequence.
+         *
+         * @return false if the dimensions are not parsable, the object is counted as parse failure
+         */
+        boolean passed(ParsedObject obj) {
+            if (obj.result == UNCHANGED) {
+                unchanged.increment();
+                return true;
+            }
+            var failure = DimensionParser.failure(obj.result);
+            if (failure == null) {
+                parsed.increment();
+                return true;
+            }
+            return passed(false, failure);
+        }
+
+        /**
+         * Parse the dimensions of an object passing the filters, the result is counted by {@link #passed(ParsedObject)}.
+         * Called concurrently.
+         */
+        ParsedObject parse(MetObject obj, ParseMemo memo) {
+            var raw = obj.getDimensionRaw();
+            if (!isNotBlank(raw) || isUnavailable(raw)) {
+                return new ParsedObject(obj, null);
+            }
+            if (imported != null && imported.isUnchanged(obj)) {
+                return new ParsedObject(obj, UNCHANGED);
+            }
+            long begin = System.nanoTime();
+            var result = memo.parse(raw);
+            parseNanos.add(System.nanoTime() - begin);
+            obj.setDimension(DimensionParser.failure(result) == null ? result : null);
+            return new ParsedObject(obj, result);
+        }
+
+        List<ParsedObject> parse(List<MetObject> objects, ParseMemo memo) {
+            var parsed = new ArrayList<ParsedObject>(objects.size());
+            for (MetObject obj : objects) {
+                parsed.add(parse(obj, memo));
+            }
+            return parsed;
+        }
+
+        /**
+         * Mark an object as seen by the import, called in sequence.
+         */
+        void seen(MetObject obj) {
+            if (imported != null) {
+                imported.markSeen(obj.getId());
+            }
+        }
+
+        void insert(int rows, Runnable insert) {
+            long begin = System.nanoTime();
+            insert.run();
+            long nanos = System.nanoTime() - begin;
+            insertNanos.add(nanos);
+            insertTimer.record(nanos, TimeUnit.NANOSECONDS);
+            inserted.add(rows);
+        }
+
+        private static String rate(long rows, long nanos, String unit) {
+            return rows + " (" + (nanos > 0 ? rows * TimeUnit.SECONDS.toNanos(1) / nanos : 0) + unit + ")";
+        }
+
+        @Override
+        public String toString() {
+            long duration = System.nanoTime() - start;
+            return "duration=" + TimeUnit.NANOSECONDS.toMillis(duration) + "ms"
+                    + " read=" + rate(read.sum(), duration, "/s")
+                    + " filtered=" + rate(filtered.sum(), duration, "/s")
+                    + " unchanged=" + unchanged.sum()
+                    + " parsed=" + rate(parsed.sum(), parseNanos.sum(), "/s per worker")
+                    + " inserted=" + rate(inserted.sum(), insertNanos.sum(), "/s per writer")
+                    + " deleted=" + deleted.sum();
+        }
+    }
+
+    /**
+     * Parse results of distinct raw dimension texts, many objects share the same text and are parsed once. Bounded by
+     * evicting the least recently used texts of a {@link StripedLru}.
+     */
+    static class ParseMemo {
+
+        private final StripedLru<String, Dimension> results;
+
+        ParseMemo(int maximumSize) {
+            results = new StripedLru<>(maximumSize);
+        }
+
+        /**
+         * @return the parsed dimension, else the failure constant of {@link DimensionParser}
+         */
+        Dimension parse(String raw) {
+            // parsed outside of the locks, concurrent misses of the same text may parse it twice
+            return results.get(raw, Dimension::parse);
+        }
+
+        long hits() {
+            return results.hits();
+        }
+    }
+
+    /**
+     * Object read with the parse result of its dimensions, see {@link ParseMemo#parse(String)}. Null if filtered before
+     * parsing.
+     */
+    @AllArgsConstructor
+    static class ParsedObject {
+
+        final MetObject obj;
+        final Dimension result;
+    }
+
+    /**
+     * Rows of an import stage, counted for the running import and by the counter museum.import.rows of the stage.
+     */
+    static class StageRows {
+
+        private final LongAdder rows = new LongAdder();
+        private final Counter counter;
+
+        StageRows(MeterRegistry registry, String stage) {
+            counter = Counter.builder("museum.import.rows")
+                    .description("Rows passed through an import stage")
+                    .tag("stage", stage)
+                    .register(registry);
+        }
+
+        void increment() {
+            add(1);
+        }
+
+        void add(long n) {
+            rows.add(n);
+            counter.increment(n);
+        }
+
+        long sum() {
+            return rows.sum();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+
+import java.util.ArrayList;
+
+/**
+ * SQL query of the objects fitting a dimension boundary ordered by id, starting after an id.
+ * <p>
+ * Only limits set by the boundary get a predicate, default limits (min -1, max {@link Double#MAX_VALUE}) are met by
+ * every object and left out, as is the id predicate of a first page. The planner sees the real selectivity and can use
+ * the index of the most selective dimension. The SQL text is built once per shape, the set of predicates, so driver
+ * and database reuse the prepared statement of a shape.
+ * </p>
+ */
+final class FittingQuery {
+
+    private static final String[] DIMENSIONS = {"height", "width", "depth", "weight"};
+
+    // shape bits 0-7 = limits of the boundary, bit 8 = id predicate
+    private static final int AFTER = 1 << 2 * DIMENSIONS.length;
+    private static final int SHAPES = AFTER << 1;
+
+    private static final String[] PAGE_SQL = new String[SHAPES];
+    private static final String[] STREAM_SQL = new String[SHAPES];
+
+    final String sql;
+    final Object[] args;
+
+    private FittingQuery(String sql, Object[] args) {
+        this.sql = sql;
+        this.args = args;
+    }
+
+    /**
+     * Query a page of up to size objects.
+     */
+    static FittingQuery page(DimensionBoundary boundary, Long after, int size) {
+        int shape = shape(boundary, after);
+        var sql = PAGE_SQL[shape];
+        if (sql == null) {
+            sql = PAGE_SQL[shape] = sql(shape) + " limit ?";
+        }
+        var args = args(boundary, shape, after);
+        args.add(size);
+        return new FittingQuery(sql, args.toArray());
+    }
+
+    /**
+     * Query all fitting objects.
+     */
+    static FittingQuery stream(DimensionBoundary boundary, Long after) {
+        int shape = shape(boundary, after);
+        var sql = STREAM_SQL[shape];
+        if (sql == null) {
+            sql = STREAM_SQL[shape] = sql(shape);
+        }
+        return new FittingQuery(sql, args(boundary, shape, after).toArray());
+    }
+
+    private static int shape(DimensionBoundary boundary, Long after) {
+        return boundary.limits() | (after != null ? AFTER : 0);
+    }
+
+    private static String sql(int shape) {
+        var predicates = new ArrayList<String>();
+        if ((shape & AFTER) != 0) {
+            predicates.add("id > ?");
+        }
+        for (int d = 0; d < DIMENSIONS.length; d++) {
+            boolean min = (shape & 1 << 2 * d) != 0, max = (shape & 1 << 2 * d + 1) != 0;
+            if (min && max) {
+                predicates.add(DIMENSIONS[d] + " between ? and ?");
+            } else if (min) {
+                predicates.add(DIMENSIONS[d] + " >= ?");
+            } else if (max) {
+                predicates.add(DIMENSIONS[d] + " <= ?");
+            }
+        }
+        return "select * from met_objects"
+                + (predicates.isEmpty() ? "" : " where " + String.join(" and ", predicates))
+                + " order by id";
+    }
+
+    private static ArrayList<Object> args(DimensionBoundary boundary, int shape, Long after) {
+        var values = boundary.args();
+        var args = new ArrayList<Object>(values.length + 2);
+        if (after != null) {
+            args.add(after);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if ((shape & 1 << i) != 0) {
+                args.add(values[i]);
+            }
+        }
+        return args;
+    }
+}
@@ -0,0 +1,307 @@
+package de.eblaas.museum;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Coordinates the imports of instances sharing a database by the tables met_import_lease and met_import_partitions.
+ * <p>
+ * The instance holding the lease leads the import, other instances wait for it to finish. A lease expires unless
+ * renewed by its owner, the lease of a failed leader is taken over by the next instance trying. Expiry times are taken
+ * from the clocks of the instances, they have to be synchronized far below the lease duration.
+ * </p>
+ * A partitioned import splits the import file into byte ranges, see {@link MetObjectCsvReader#partitions(Path, int)}.
+ * Partitions are claimed by the workers of all instances, claims expire like the lease. A partition is staged in one
+ * transaction, committed together with marking the partition finished. The partition of a failed worker is staged
+ * again from scratch by the next worker claiming it.
+ * <p>
+ * The lease keeps the time and the {@link Source} of the last finished import, a source imported already is not
+ * imported again. Instances reload the imported objects when the time changes, see {@link ImportWatcher}.
+ * </p>
+ */
+@Slf4j
+@Component
+@Profile("import")
+class ImportCoordinator {
+
+    static final String LEASE = "import";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String owner;
+    private final long leaseMillis;
+
+    @Autowired
+    ImportCoordinator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                      @Value("${import.lease:60s}") Duration lease) {
+        this(jdbcTemplate, transactionTemplate,
+                ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8),
+                lease.toMillis());
+    }
+
+    ImportCoordinator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, String owner,
+                      long leaseMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Byte range of the import file staged by one worker.
+     */
+    @ToString
+    @AllArgsConstructor
+    static class Partition {
+
+        final int id;
+        final long first, last;
+    }
+
+    /**
+     * Import file and size limit of an import, the file is identified by its size and modification time.
+     */
+    @ToString
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    static class Source {
+
+        final long size, modified, importSize;
+
+        static Source of(Path file, long importSize) throws IOException {
+            return new Source(Files.size(file), Files.getLastModifiedTime(file).toMillis(), importSize);
+        }
+    }
+
+    String owner() {
+        return owner;
+    }
+
+    long leaseMillis() {
+        return leaseMillis;
+    }
+
+    void initTables() {
+        String[] sqlStatements = {
+                "create table if not exists met_import_lease(name VARCHAR(32) PRIMARY KEY, owner VARCHAR(128), "
+                        + "expires BIGINT NOT NULL, completed BIGINT NOT NULL)",
+                "alter table met_import_lease add column if not exists source_size BIGINT",
+                "alter table met_import_lease add column if not exists source_modified BIGINT",
+                "alter table met_import_lease add column if not exists import_size BIGINT",
+                "create table if not exists met_import_partitions(id INT PRIMARY KEY, "
+                        + "first_offset BIGINT NOT NULL, last_offset BIGINT NOT NULL, source_size BIGINT NOT NULL, "
+                        + "owner VARCHAR(128), expires BIGINT NOT NULL, finished INT NOT NULL)"
+        };
+        for (String sql : sqlStatements) {
+            jdbcTemplate.execute(sql);
+        }
+        try {
+            jdbcTemplate.update("insert into met_import_lease (name, expires, completed) "
+                            + "select ?, 0, 0 where not exists (select name from met_import_lease where name = ?)",
+                    LEASE, LEASE);
+        } catch (DuplicateKeyException e) {
+            // inserted by another instance
+        }
+    }
+
+    /**
+     * Acquire the lease if it is free, expired or held by this instance.
+     *
+     * @return true if this instance leads the import
+     */
+    boolean acquire() {
+        long now = System.currentTimeMillis();
+        return jdbcTemplate.update("update met_import_lease set owner = ?, expires = ? "
+                        + "where name = ? and (owner is null or owner = ? or expires < ?)",
+                owner, now + leaseMillis, LEASE, owner, now) == 1;
+    }
+
+    /**
+     * Forget the source of the last finished import, the stored objects are changed by the import started. A source
+     * is not skipped as imported if its import fails.
+     */
+    void importStarted() {
+        jdbcTemplate.update("update met_import_lease set source_size = null, source_modified = null, "
+                + "import_size = null where name = ? and owner = ?", LEASE, owner);
+    }
+
+    /**
+     * Extend the lease and the partition claims held by this instance, called periodically well within the lease
+     * duration.
+     */
+    void renew() {
+        long expires = System.currentTimeMillis() + leaseMillis;
+        try {
+            jdbcTemplate.update("update met_import_lease set expires = ? where name = ? and owner = ?",
+                    expires, LEASE, owner);
+            jdbcTemplate.update("update met_import_partitions set expires = ? where owner = ? and finished = 0",
+                    expires, owner);
+        } catch (DataAccessException e) {
+            log.warn("Renewing import lease failed. owner={}", owner, e);
+        }
+    }
+
+    /**
+     * Release the lease held by this instance.
+     *
+     * @param imported source of the finished import, instances reload the imported objects. Null if the import failed
+     *                 or was skipped, the last finished import is kept.
+     * @return the time the import finished, 0 if not finished
+     */
+    long release(Source imported) {
+        if (imported == null) {
+            jdbcTemplate.update("update met_import_lease set owner = null, expires = 0 where name = ? and owner = ?",
+                    LEASE, owner);
+            return 0;
+        }
+        long completed = System.currentTimeMillis();
+        jdbcTemplate.update("update met_import_lease set owner = null, expires = 0, completed = ?, "
+                        + "source_size = ?, source_modified = ?, import_size = ? where name = ? and owner = ?",
+                completed, imported.size, imported.modified, imported.importSize, LEASE, owner);
+        return completed;
+    }
+
+    /**
+     * @return the owner of the lease, null if the lease is free or expired
+     */
+    String leader() {
+        var owners = jdbcTemplate.queryForList("select owner from met_import_lease where name = ? and expires >= ?",
+                String.class, LEASE, System.currentTimeMillis());
+        return owners.isEmpty() ? null : owners.get(0);
+    }
+
+    /**
+     * @return the time the last import finished, changes with each finished import
+     */
+    long completed() {
+        return completed(jdbcTemplate);
+    }
+
+    /**
+     * @return the time the last import finished, 0 if none finished
+     * @throws DataAccessException if the lease table is missing, no instance imported yet
+     */
+    static long completed(JdbcTemplate jdbcTemplate) {
+        var completed = jdbcTemplate.queryForObject("select completed from met_import_lease where name = ?",
+                Long.class, LEASE);
+        return completed == null ? 0 : completed;
+    }
+
+    /**
+     * @return the source of the last finished import, null if none finished
+     */
+    Source completedSource() {
+        var sources = jdbcTemplate.query("select source_size, source_modified, import_size from met_import_lease "
+                        + "where name = ? and completed <> 0 and source_size is not null",
+                (rs, n) -> new Source(rs.getLong(1), rs.getLong(2), rs.getLong(3)), LEASE);
+        return sources.isEmpty() ? null : sources.get(0);
+    }
+
+    /**
+     * Replace the partitions of a former import by unclaimed partitions between the offsets.
+     *
+     * @param sourceSize size of the import file, only workers reading a file of the same size claim the partitions
+     */
+    void createPartitions(long sourceSize, long[] offsets) {
+        var partitions = new ArrayList<Partition>();
+        for (int i = 0; i + 1 < offsets.length; i++) {
+            partitions.add(new Partition(i, offsets[i], offsets[i + 1]));
+        }
+        deletePartitions();
+        jdbcTemplate.batchUpdate("insert into met_import_partitions "
+                        + "(id, first_offset, last_offset, source_size, owner, expires, finished) "
+                        + "values(?, ?, ?, ?, null, 0, 0)",
+                partitions,
+                partitions.size(),
+                (ps, partition) -> {
+                    ps.setInt(1, partition.id);
+                    ps.setLong(2, partition.first);
+                    ps.setLong(3, partition.last);
+                    ps.setLong(4, sourceSize);
+                });
+    }
+
+    /**
+     * Delete the partitions of a former import, workers still staging one of them fail to finish it.
+     */
+    void deletePartitions() {
+        jdbcTemplate.update("delete from met_import_partitions");
+    }
+
+    /**
+     * Claim an unfinished partition, unclaimed or claimed by a failed worker.
+     *
+     * @return the claimed partition, null if there is none to claim
+     */
+    Partition claim(long sourceSize) {
+        long now = System.currentTimeMillis();
+        List<Partition> candidates = jdbcTemplate.query(
+                "select id, first_offset, last_offset from met_import_partitions "
+                        + "where finished = 0 and source_size = ? and (owner is null or expires < ?) order by id",
+                (rs, n) -> new Partition(rs.getInt(1), rs.getLong(2), rs.getLong(3)), sourceSize, now);
+        for (Partition partition : candidates) {
+            int claimed = jdbcTemplate.update("update met_import_partitions set owner = ?, expires = ? "
+                            + "where id = ? and finished = 0 and (owner is null or expires < ?)",
+                    owner, now + leaseMillis, partition.id, now);
+            if (claimed == 1) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stage a claimed partition, the work is rolled back if the claim expired and the partition was claimed by another
+     * worker meanwhile.
+     */
+    void stage(Partition partition, Runnable work) {
+        transactionTemplate.executeWithoutResult(status -> {
+            work.run();
+            int finished = jdbcTemplate.update("update met_import_partitions set finished = 1 "
+                    + "where id = ? and owner = ?", partition.id, owner);
+            if (finished != 1) {
+                throw new IllegalStateException("Partition claimed by another worker. partition=" + partition);
+            }
+        });
+    }
+
+    /**
+     * Drop the claim of a partition this worker failed to stage, it is claimed by the next worker.
+     */
+    void unclaim(Partition partition) {
+        try {
+            jdbcTemplate.update("update met_import_partitions set owner = null, expires = 0 where id = ? and owner = ?",
+                    partition.id, owner);
+        } catch (DataAccessException e) {
+            log.warn("Dropping partition claim failed, the claim expires. partition={}", partition, e);
+        }
+    }
+
+    /**
+     * @return number of partitions not staged yet
+     */
+    int unfinishedPartitions() {
+        var unfinished = jdbcTemplate.queryForObject("select count(*) from met_import_partitions where finished = 0",
+                Integer.class);
+        return unfinished == null ? 0 : unfinished;
+    }
+}
@@ -0,0 +1,97 @@
+package de.eblaas.museum;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the in-memory copies of the stored objects when an import finished, on every instance with or without the
+ * import profile. The time of the last finished import is polled from the import lease, see
+ * {@link ImportCoordinator}. The objects stored at startup are loaded by {@link MetObjectService} when the application
+ * is ready, imports finished later are reloaded by the watcher.
+ */
+@Slf4j
+@Component
+class ImportWatcher {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MetObjectService service;
+    private final long pollMillis;
+
+    /**
+     * Time of the import the in-memory copies were loaded for, 0 if none.
+     */
+    private long loaded;
+
+    private Disposable polling;
+
+    ImportWatcher(JdbcTemplate jdbcTemplate, MetObjectService service,
+                  @Value("${import.poll:10s}") Duration poll) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.service = service;
+        this.pollMillis = poll.toMillis();
+    }
+
+    @PostConstruct
+    void start() {
+        try {
+            loaded(ImportCoordinator.completed(jdbcTemplate));
+        } catch (DataAccessException e) {
+            log.debug("No import finished yet.", e);
+        }
+        polling = Schedulers.io().schedulePeriodicallyDirect(this::poll, pollMillis, pollMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        polling.dispose();
+    }
+
+    void poll() {
+        long completed;
+        try {
+            completed = ImportCoordinator.completed(jdbcTemplate);
+        } catch (DataAccessException e) {
+            log.debug("No import finished yet.", e);
+            return;
+        }
+        if (completed != 0) {
+            try {
+                reload(completed);
+            } catch (RuntimeException e) {
+                log.warn("Reloading imported objects failed. completed={}", completed, e);
+            }
+        }
+    }
+
+    /**
+     * Reload the in-memory copies unless they were loaded for the import already.
+     *
+     * @param completed time the import finished
+     */
+    synchronized void reload(long completed) {
+        if (completed == loaded) {
+            return;
+        }
+        log.info("Reload imported objects. completed={}", completed);
+        service.reload();
+        loaded = completed;
+    }
+
+    /**
+     * Mark the in-memory copies as loaded for an import, e.g. reloaded by the instance finishing it.
+     */
+    synchronized void loaded(long completed) {
+        loaded = completed;
+    }
+}
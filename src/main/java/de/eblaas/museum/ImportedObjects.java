@@ -0,0 +1,70 @@
+package de.eblaas.museum;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Ids and dimension hashes of the objects stored by former imports, sorted by id.
+ * <p>
+ * Tracks the objects seen by a running incremental import, stored objects not seen are gone from the import file.
+ * Lookups are thread safe, {@link #add(long, long)} and {@link #markSeen(long)} have to be called by a single thread.
+ * </p>
+ */
+class ImportedObjects {
+
+    private long[] ids, hashes;
+    private int size;
+    private final BitSet seen;
+
+    ImportedObjects(int expectedSize) {
+        ids = new long[Math.max(expectedSize, 16)];
+        hashes = new long[ids.length];
+        seen = new BitSet(ids.length);
+    }
+
+    /**
+     * Add a stored object, ids have to be added in ascending order.
+     */
+    void add(long id, long hash) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        ids[size] = id;
+        hashes[size++] = hash;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(long id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * @return true if the object is stored with the same raw dimension text
+     */
+    boolean isUnchanged(MetObject obj) {
+        int index = Arrays.binarySearch(ids, 0, size, obj.getId());
+        return index >= 0 && hashes[index] == obj.dimensionHash();
+    }
+
+    void markSeen(long id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            seen.set(index);
+        }
+    }
+
+    /**
+     * @return ids of the stored objects not seen by the import
+     */
+    long[] unseen() {
+        var result = new long[size - seen.cardinality()];
+        for (int i = seen.nextClearBit(0), n = 0; i < size; i = seen.nextClearBit(i + 1)) {
+            result[n++] = ids[i];
+        }
+        return result;
+    }
+}
@@ -1,27 +1,83 @@
 package de.eblaas.museum;
 
-import com.opencsv.bean.CsvBindByName;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import lombok.*;
 
+import java.util.Set;
+
 @ToString
 @Getter
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@JsonFilter(MetObject.FIELDS_FILTER)
 public class MetObject {
 
-    @CsvBindByName(column = "Object ID", required = true)
+    static final String FIELDS_FILTER = "fields";
+
+    /**
+     * Properties a response can be projected to, see {@link #fields(Set)}.
+     */
+    static final Set<String> FIELDS = Set.of("id", "dimensionRaw", "dimension");
+
     private long id;
 
-    @CsvBindByName(column = "Dimensions")
+    /**
+     * Raw dimension text, objects loaded from the database get it from the dimension dictionary by the hash, see
+     * {@link #dimensionHash()}.
+     */
+    @Setter(AccessLevel.PACKAGE)
     private String dimensionRaw;
 
+    @Setter(AccessLevel.PACKAGE)
     private Dimension dimension;
 
+    /**
+     * Stored hash of the raw dimension text, set for objects loaded without the text.
+     */
+    @Getter(AccessLevel.NONE)
+    private long dimensionHash;
+
+    /**
+     * @return a copy of the object, e.g. to set the raw dimension text of an object shared by a cache
+     */
+    MetObject copy() {
+        return new MetObject(id, dimensionRaw, dimension, dimensionHash);
+    }
+
     boolean validDimension() {
         if (dimension == null) {
             dimension = Dimension.fromString(dimensionRaw);
         }
         return dimension != null;
     }
+
+    /**
+     * 64 bit FNV-1a hash of the raw dimension text, detects changed dimensions on incremental imports and keys the
+     * text in the dimension dictionary. Objects loaded without the text return the stored hash.
+     */
+    long dimensionHash() {
+        if (dimensionRaw == null) {
+            return dimensionHash;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < dimensionRaw.length(); i++) {
+            hash = (hash ^ dimensionRaw.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Filter serializing only the given properties of objects, serializers of objects have to be configured with it.
+     *
+     * @param fields the properties to serialize, null for all
+     */
+    static FilterProvider fields(Set<String> fields) {
+        return new SimpleFilterProvider().addFilter(FIELDS_FILTER, fields == null
+                ? SimpleBeanPropertyFilter.serializeAll()
+                : SimpleBeanPropertyFilter.filterOutAllExcept(fields));
+    }
 }
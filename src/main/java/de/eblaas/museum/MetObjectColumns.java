@@ -0,0 +1,475 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory copy of the stored MET objects in primitive columns (struct of arrays), answers dimension boundary
+ * queries without a database round trip.
+ * <p>
+ * The rows are indexed by a static k-d tree over the four dimensions: each node splits its rows at the median of the
+ * dimension with the largest extent and stores the bounding box of its rows. A query skips nodes outside of the
+ * boundaries and takes nodes completely inside of the boundaries without checking their rows, only the rows of leaves
+ * crossing a boundary are filtered, column by column without branches. Queries are selective for any combination of
+ * boundaries, not only for height like the dimensions index of the database.
+ * </p>
+ * Missing dimensions are stored as -1 like in the database, the boundaries are compared exactly like the SQL between
+ * predicates.
+ */
+final class MetObjectColumns {
+
+    private static final int HEIGHT = 0, WIDTH = 1, DEPTH = 2, WEIGHT = 3, DIMENSIONS = 4;
+
+    /**
+     * Maximum number of rows of a leaf.
+     */
+    private static final int LEAF_SIZE = 128;
+
+    /**
+     * Rows scanned in id order by one worker, smaller scans run in the calling thread.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private long[] ids;
+    private long[] dimHashes;
+    private final double[][] columns = new double[DIMENSIONS][];
+    private int size;
+
+    /**
+     * Tree depth, leaves are on this level. The rows of a node are split in halves, node n has the children 2n+1 and
+     * 2n+2. The bounding box of node n is stored at n * DIMENSIONS.
+     */
+    private int depth;
+    private double[] nodeMin = new double[0], nodeMax = new double[0];
+
+    /**
+     * Rows in id order.
+     */
+    private int[] byId = new int[0];
+
+    MetObjectColumns(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        ids = new long[capacity];
+        dimHashes = new long[capacity];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            columns[d] = new double[capacity];
+        }
+    }
+
+    /**
+     * Add a stored object, the raw dimension text is kept as hash only, see {@link MetObject#dimensionHash()}.
+     */
+    void add(long id, long dimHash, double height, double width, double depth, double weight) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            dimHashes = Arrays.copyOf(dimHashes, capacity);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                columns[d] = Arrays.copyOf(columns[d], capacity);
+            }
+        }
+        ids[size] = id;
+        dimHashes[size] = dimHash;
+        columns[HEIGHT][size] = height;
+        columns[WIDTH][size] = width;
+        columns[DEPTH][size] = depth;
+        columns[WEIGHT][size] = weight;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Build the tree, reorder the rows in tree order and index the ids, has to be called once all rows are added.
+     */
+    void buildIndex() {
+
+        depth = 0;
+        while ((size + (1 << depth) - 1) >> depth > LEAF_SIZE) {
+            depth++;
+        }
+        int nodes = (2 << depth) - 1;
+        nodeMin = new double[nodes * DIMENSIONS];
+        nodeMax = new double[nodes * DIMENSIONS];
+
+        int[] order = IntStream.range(0, size).toArray();
+        if (size > 0) {
+            build(order, 0, 0, size, 0);
+        }
+
+        ids = reorder(ids, order);
+        dimHashes = reorder(dimHashes, order);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            columns[d] = reorder(columns[d], order);
+        }
+        byId = IntStream.range(0, size)
+                .boxed()
+                .sorted(Comparator.comparingLong(row -> ids[row]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private void build(int[] order, int node, int from, int to, int level) {
+
+        int box = node * DIMENSIONS;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double[] column = columns[d];
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, column[order[i]]);
+                max = Math.max(max, column[order[i]]);
+            }
+            nodeMin[box + d] = min;
+            nodeMax[box + d] = max;
+        }
+        if (level == depth) {
+            return;
+        }
+
+        // split the dimension with the largest extent relative to the extent of all rows
+        int split = 0;
+        double largest = -1;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double extent = nodeMax[d] - nodeMin[d];
+            double relative = extent > 0 ? (nodeMax[box + d] - nodeMin[box + d]) / extent : 0;
+            if (relative > largest) {
+                largest = relative;
+                split = d;
+            }
+        }
+
+        int mid = (from + to) >>> 1;
+        select(order, from, to, mid, columns[split]);
+        build(order, 2 * node + 1, from, mid, level + 1);
+        build(order, 2 * node + 2, mid, to, level + 1);
+    }
+
+    /**
+     * Partially sort order[from, to) so that the rows before k have keys less or equal and the rows after k have keys
+     * greater or equal the key of row k. Equal keys are partitioned in three ways, missing dimensions are frequent.
+     */
+    private static void select(int[] order, int from, int to, int k, double[] key) {
+        while (to - from > 1) {
+            int mid = (from + to) >>> 1;
+            double a = key[order[from]], b = key[order[mid]], c = key[order[to - 1]];
+            double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+            int less = from, i = from, greater = to;
+            while (i < greater) {
+                double value = key[order[i]];
+                if (value < pivot) {
+                    swap(order, less++, i++);
+                } else if (value > pivot) {
+                    swap(order, i, --greater);
+                } else {
+                    i++;
+                }
+            }
+            if (k < less) {
+                to = less;
+            } else if (k >= greater) {
+                from = greater;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int row = order[i];
+        order[i] = order[j];
+        order[j] = row;
+    }
+
+    /**
+     * List objects fitting the dimension boundaries ordered by id, see
+     * {@link MetObjectService#listFittingObjects(DimensionBoundary, Long, int, boolean)} for the semantic of the
+     * boundaries.
+     * <p>
+     * The fitting rows are counted by the tree first. If many rows fit, the rows are scanned in id order till the
+     * limit is reached, else the fitting rows are searched in the tree keeping the rows with the smallest ids. A scan
+     * checks about limit * size / fitting rows, the tree search collects all fitting rows, the scan is cheaper if more
+     * than sqrt(limit * size) rows fit. Counting stops at this threshold.
+     * </p>
+     *
+     * @param after only objects with a greater id are listed
+     * @param limit maximum number of objects returned
+     */
+    List<MetObject> listFitting(DimensionBoundary boundary, long after, int limit) {
+
+        var args = boundary.args();
+        if (size == 0 || Arrays.asList(args).contains(null)) {
+            // like SQL, a between predicate with null never matches
+            return List.of();
+        }
+        double[] bounds = Arrays.stream(args).mapToDouble(Double::doubleValue).toArray();
+
+        var search = new Search(bounds, after, limit);
+        long threshold = (long) Math.sqrt((double) limit * size);
+        long fitting = search.count(0, 0, size, 0, threshold);
+        if (fitting == 0) {
+            return List.of();
+        }
+
+        int[] rows;
+        if (fitting > threshold) {
+            rows = scanById(bounds, firstAfter(after), limit, Math.min((long) limit * size / fitting, size));
+        } else {
+            search.collect(0, 0, size, 0);
+            rows = search.rows();
+        }
+
+        return Arrays.stream(rows).mapToObj(this::toMetObject).collect(Collectors.toList());
+    }
+
+    /**
+     * Scan the rows in id order from the specified position, scans of many rows are split into chunks scanned in
+     * parallel.
+     *
+     * @param scanned expected number of rows to scan
+     */
+    private int[] scanById(double[] bounds, int start, int limit, long scanned) {
+        if (scanned <= CHUNK_SIZE) {
+            return scanById(bounds, start, size, limit);
+        }
+        int chunks = (size - start + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> scanById(bounds, start + chunk * CHUNK_SIZE,
+                        Math.min(start + (chunk + 1) * CHUNK_SIZE, size), limit))
+                .flatMapToInt(Arrays::stream)
+                .limit(limit)
+                .toArray();
+    }
+
+    private int[] scanById(double[] bounds, int from, int to, int limit) {
+        int[] rows = new int[Math.min(limit, 64)];
+        int count = 0;
+        for (int i = from; i < to && count < limit; i++) {
+            int row = byId[i];
+            if (fits(row, bounds)) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, count * 2);
+                }
+                rows[count++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    private boolean fits(int row, double[] bounds) {
+        double height = columns[HEIGHT][row], width = columns[WIDTH][row];
+        double depth = columns[DEPTH][row], weight = columns[WEIGHT][row];
+        return height >= bounds[0] & height <= bounds[1] & width >= bounds[2] & width <= bounds[3]
+                & depth >= bounds[4] & depth <= bounds[5] & weight >= bounds[6] & weight <= bounds[7];
+    }
+
+    /**
+     * @return the object with the id, null if not found
+     */
+    MetObject findById(long id) {
+        int position = firstAfter(id) - 1;
+        return position >= 0 && ids[byId[position]] == id ? toMetObject(byId[position]) : null;
+    }
+
+    /**
+     * @return position of the first row in id order with an id greater than after
+     */
+    private int firstAfter(long after) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[byId[mid]] <= after) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Depth first search of the rows within the boundaries.
+     */
+    private final class Search {
+
+        private final double[] bounds;
+        private final long after;
+        private final int limit;
+        private final int[] selected = new int[LEAF_SIZE];
+
+        /**
+         * Collected rows with the smallest ids, max heap by id.
+         */
+        private int[] heap = new int[64];
+        private int count;
+
+        Search(double[] bounds, long after, int limit) {
+            this.bounds = bounds;
+            this.after = after;
+            this.limit = limit;
+        }
+
+        /**
+         * @return number of rows within the boundaries, rows of nodes completely within the boundaries are not visited.
+         * Counting stops once more rows than the threshold are counted.
+         */
+        long count(int node, int from, int to, int level, long threshold) {
+            int crossing = crossing(node);
+            if (crossing < 0) {
+                return 0;
+            } else if (crossing == 0) {
+                return to - from;
+            } else if (level == depth) {
+                return filter(from, to, crossing);
+            }
+            int mid = (from + to) >>> 1;
+            long count = count(2 * node + 1, from, mid, level + 1, threshold);
+            if (count > threshold) {
+                return count;
+            }
+            return count + count(2 * node + 2, mid, to, level + 1, threshold - count);
+        }
+
+        void collect(int node, int from, int to, int level) {
+            int crossing = crossing(node);
+            if (crossing == 0) {
+                for (int row = from; row < to; row++) {
+                    add(row);
+                }
+            } else if (crossing > 0 && level == depth) {
+                int n = filter(from, to, crossing);
+                for (int i = 0; i < n; i++) {
+                    add(selected[i]);
+                }
+            } else if (crossing > 0) {
+                int mid = (from + to) >>> 1;
+                collect(2 * node + 1, from, mid, level + 1);
+                collect(2 * node + 2, mid, to, level + 1);
+            }
+        }
+
+        /**
+         * @return the dimensions of the node crossing a boundary as bit set, 0 if all rows are within the boundaries,
+         * -1 if all rows are outside of the boundaries
+         */
+        private int crossing(int node) {
+            int box = node * DIMENSIONS, crossing = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double min = bounds[2 * d], max = bounds[2 * d + 1];
+                if (nodeMax[box + d] < min || nodeMin[box + d] > max) {
+                    return -1;
+                }
+                if (nodeMin[box + d] < min || nodeMax[box + d] > max) {
+                    crossing |= 1 << d;
+                }
+            }
+            return crossing;
+        }
+
+        /**
+         * Filter the rows of a leaf by the dimensions crossing a boundary.
+         *
+         * @return the number of rows within the boundaries, stored in {@link #selected}
+         */
+        private int filter(int from, int to, int crossing) {
+            int n = to - from;
+            for (int i = 0; i < n; i++) {
+                selected[i] = from + i;
+            }
+            for (int d = 0; d < DIMENSIONS && n > 0; d++) {
+                if ((crossing & 1 << d) == 0) {
+                    continue;
+                }
+                double[] column = columns[d];
+                double min = bounds[2 * d], max = bounds[2 * d + 1];
+                int matches = 0;
+                for (int i = 0; i < n; i++) {
+                    // store the row unconditionally, the matches only advance if the value is within the boundaries
+                    int row = selected[i];
+                    selected[matches] = row;
+                    matches += column[row] >= min & column[row] <= max ? 1 : 0;
+                }
+                n = matches;
+            }
+            return n;
+        }
+
+        private void add(int row) {
+            long id = ids[row];
+            if (id <= after) {
+                return;
+            }
+            if (count < limit) {
+                if (count == heap.length) {
+                    heap = Arrays.copyOf(heap, count * 2);
+                }
+                // sift up
+                int i = count++;
+                while (i > 0 && ids[heap[(i - 1) / 2]] < id) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = row;
+            } else if (id < ids[heap[0]]) {
+                // replace the largest id, sift down
+                int i = 0;
+                while (2 * i + 1 < count) {
+                    int child = 2 * i + 1;
+                    if (child + 1 < count && ids[heap[child + 1]] > ids[heap[child]]) {
+                        child++;
+                    }
+                    if (ids[heap[child]] <= id) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = row;
+            }
+        }
+
+        /**
+         * @return the collected rows ordered by id
+         */
+        int[] rows() {
+            return Arrays.stream(heap, 0, count)
+                    .boxed()
+                    .sorted(Comparator.comparingLong(row -> ids[row]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+
+    private static long[] reorder(long[] values, int[] order) {
+        var result = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static double[] reorder(double[] values, int[] order) {
+        var result = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private MetObject toMetObject(int row) {
+        return MetObject.builder()
+                .id(ids[row])
+                .dimensionHash(dimHashes[row])
+                .dimension(new Dimension(columns[HEIGHT][row], columns[WIDTH][row], columns[DEPTH][row],
+                        columns[WEIGHT][row]))
+                .build();
+    }
+}
@@ -0,0 +1,327 @@
+package de.eblaas.museum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads MET objects from the MET CSV file, only the columns "Object ID" and "Dimensions" are decoded.
+ * <p>
+ * The file is read through a large direct buffer and parsed byte by byte, the positions of the two columns are
+ * resolved from the header once. Fields of all other columns are skipped without creating strings. Quoted fields may
+ * contain separators, escaped quotes ("" or \") and line breaks, line breaks in quoted fields are normalized to \n
+ * like the former OpenCSV based reader did.
+ * </p>
+ * The file has to be UTF-8 encoded, a leading byte order mark is skipped. A reader may be limited to the records
+ * starting within a byte range, ranges split at record boundaries are found by {@link #partitions(Path, int)}.
+ */
+final class MetObjectCsvReader implements Iterator<MetObject>, Closeable {
+
+    static final String ID_COLUMN = "Object ID";
+    static final String DIMENSION_COLUMN = "Dimensions";
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int SEPARATOR = ',', QUOTE = '"', ESCAPE = '\\', CR = '\r', LF = '\n';
+    private static final int END_OF_FILE = -1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private boolean fieldEmpty;
+
+    private final int idColumn, dimensionColumn;
+    private final long last;
+    private long records;
+    private MetObject next;
+
+    MetObjectCsvReader(Path file) throws IOException {
+        this(file, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read the records starting within the byte range, the header is always read from the start of the file.
+     *
+     * @param first offset of the first record, a record boundary, ignored if within the header
+     * @param last  offset after the last record, records starting at or after it are not read
+     */
+    MetObjectCsvReader(Path file, long first, long last) throws IOException {
+        this.last = last;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            buffer.flip();
+            skipByteOrderMark();
+
+            int id = -1, dimension = -1, column = 0, end;
+            do {
+                end = readField(true);
+                var name = new String(field, 0, fieldLength, StandardCharsets.UTF_8).trim();
+                if (name.equalsIgnoreCase(ID_COLUMN)) {
+                    id = column;
+                } else if (name.equalsIgnoreCase(DIMENSION_COLUMN)) {
+                    dimension = column;
+                }
+                column++;
+            } while (end == SEPARATOR);
+
+            if (id < 0) {
+                throw new IOException("Required column '" + ID_COLUMN + "' not found in header. file=" + file);
+            }
+            idColumn = id;
+            dimensionColumn = dimension;
+            if (first > position()) {
+                channel.position(first);
+                buffer.clear().flip();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public MetObject next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Split a file into byte ranges of about the same size, each starting at a record boundary. Finding the boundaries
+     * requires a scan of the quoting up to the last one, quoted fields may contain line breaks.
+     *
+     * @return count + 1 offsets, range i starts at offset i and ends at offset i + 1, ranges may be empty
+     */
+    static long[] partitions(Path file, int count) throws IOException {
+        try (var reader = new MetObjectCsvReader(file)) {
+            long size = reader.channel.size();
+            long[] offsets = new long[count + 1];
+            offsets[0] = reader.position();
+            int next = 1;
+            while (next < count && reader.skipRecord()) {
+                long position = reader.position();
+                while (next < count && position >= offsets[0] + (size - offsets[0]) * next / count) {
+                    offsets[next++] = position;
+                }
+            }
+            while (next <= count) {
+                offsets[next++] = size;
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean skipRecord() throws IOException {
+        int end;
+        do {
+            end = readField(false);
+        } while (end == SEPARATOR);
+        return end != END_OF_FILE;
+    }
+
+    /**
+     * @return the file offset of the next byte read
+     */
+    private long position() throws IOException {
+        return channel.position() - buffer.remaining();
+    }
+
+    /**
+     * @return the next object or null at the end of the file, empty lines are skipped
+     */
+    private MetObject readRecord() throws IOException {
+        while (true) {
+            if (position() >= last) {
+                return null;
+            }
+            long id = 0;
+            String dimensionRaw = null;
+            int column = 0, end;
+            do {
+                boolean projected = column == idColumn || column == dimensionColumn;
+                end = readField(projected);
+                if (column == 0 && fieldEmpty && end != SEPARATOR) {
+                    break;
+                }
+                if (column == idColumn) {
+                    id = parseId();
+                } else if (column == dimensionColumn) {
+                    dimensionRaw = fieldLength == 0 ? "" : new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+                }
+                column++;
+            } while (end == SEPARATOR);
+
+            if (column == 0) {
+                if (end == END_OF_FILE) {
+                    return null;
+                }
+                continue;
+            }
+            records++;
+            if (column <= idColumn) {
+                throw new IllegalStateException("Column '" + ID_COLUMN + "' missing in record " + records);
+            }
+            return MetObject.builder().id(id).dimensionRaw(dimensionRaw).build();
+        }
+    }
+
+    /**
+     * Read the next field, if projected the unquoted content is stored in {@link #field}.
+     *
+     * @return the character terminating the field, {@link #SEPARATOR}, {@link #LF} or {@link #END_OF_FILE}
+     */
+    private int readField(boolean projected) throws IOException {
+        fieldLength = 0;
+        fieldEmpty = true;
+        boolean quoted = false;
+        while (true) {
+            int c = read();
+            if (c == END_OF_FILE) {
+                return END_OF_FILE;
+            }
+            if (!quoted && (c == SEPARATOR || c == LF || c == CR)) {
+                if (c == CR && peek() == LF) {
+                    read();
+                }
+                return c == SEPARATOR ? SEPARATOR : LF;
+            }
+            boolean inField = quoted || !fieldEmpty;
+            fieldEmpty = false;
+
+            if (c == ESCAPE) {
+                // like OpenCSV an escape character is dropped, it only escapes quotes and itself within a field
+                if (inField && (peek() == QUOTE || peek() == ESCAPE)) {
+                    append(read(), projected);
+                }
+            } else if (c == QUOTE) {
+                if (quoted && peek() == QUOTE) {
+                    append(read(), projected);
+                } else {
+                    quoted = !quoted;
+                    // ignore leading white space before a quote
+                    if (quoted && projected && isBlank()) {
+                        fieldLength = 0;
+                    }
+                }
+            } else if (c == CR) {
+                // line break within quotes
+                if (peek() == LF) {
+                    read();
+                }
+                append(LF, projected);
+            } else {
+                append(c, projected);
+            }
+        }
+    }
+
+    private long parseId() {
+        int from = 0, to = fieldLength;
+        while (from < to && field[from] <= ' ') {
+            from++;
+        }
+        while (to > from && field[to - 1] <= ' ') {
+            to--;
+        }
+        long id = 0;
+        for (int i = from; i < to; i++) {
+            int digit = field[i] - '0';
+            if (digit < 0 || digit > 9 || i - from > 17) {
+                return Long.parseLong(new String(field, from, to - from, StandardCharsets.UTF_8));
+            }
+            id = id * 10 + digit;
+        }
+        if (from == to) {
+            throw new NumberFormatException("Column '" + ID_COLUMN + "' empty in record " + (records + 1));
+        }
+        return id;
+    }
+
+    private boolean isBlank() {
+        for (int i = 0; i < fieldLength; i++) {
+            if (field[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(int c, boolean projected) {
+        if (!projected) {
+            return;
+        }
+        if (fieldLength == field.length) {
+            var grown = new byte[field.length * 2];
+            System.arraycopy(field, 0, grown, 0, fieldLength);
+            field = grown;
+        }
+        field[fieldLength++] = (byte) c;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        if (fill() && buffer.remaining() >= 3
+                && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF) {
+            buffer.position(3);
+        }
+    }
+
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return END_OF_FILE;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return END_OF_FILE;
+        }
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    /**
+     * Refill the buffer, keeps unread bytes.
+     *
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+}
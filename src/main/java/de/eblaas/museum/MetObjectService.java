@@ -2,15 +2,42 @@ package de.eblaas.museum;
 
 import de.eblaas.museum.Dimension.DimensionBoundary;
 import de.eblaas.museum.Dimension.DimensionBoundaryFitResult;
+import de.eblaas.museum.Dimension.DimensionStats;
+import de.eblaas.museum.Dimension.DistanceMetric;
+import de.eblaas.museum.Dimension.IdFitResult;
+import de.eblaas.museum.Dimension.RankedObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -19,30 +46,670 @@ public class MetObjectService {
 
     static int BATCH_SIZE = 1000;
 
+    static int FETCH_SIZE = 1000;
+
+    static int FIT_CHUNK_SIZE = 1000;
+
+    static int CACHE_SIZE = 10_000;
+
+    static int DICTIONARY_SIZE = 100_000;
+
+    /**
+     * Objects reference their raw dimension text by its hash, see {@link MetObject#dimensionHash()}. Many objects share
+     * the same text, each text is stored once in the dictionary table met_dimensions.
+     */
+    private static final String COLUMNS = "dim_hash BIGINT, height DOUBLE PRECISION, "
+            + "width DOUBLE PRECISION, depth DOUBLE PRECISION, weight DOUBLE PRECISION";
+
+    private static final String DICTIONARY = "met_dimensions(hash BIGINT PRIMARY KEY, dim VARCHAR(5000))";
+
+    /**
+     * Secondary indexes name and columns, the composite index serves queries limiting the height, the single column
+     * indexes queries limiting another dimension. The planner picks the most selective one.
+     */
+    private static final String[][] INDEXES = {
+            {"dimensions", "height, width, depth, weight"},
+            {"dimension_width", "width"},
+            {"dimension_depth", "depth"},
+            {"dimension_weight", "weight"}};
+
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final QueryMetrics metrics;
+
+    @Value("${query.engine:sql}")
+    private QueryEngine queryEngine;
+
+    /**
+     * In-memory copy of the stored objects, null till loaded or if the SQL engine is used.
+     */
+    private volatile MetObjectColumns columns;
+
+    /**
+     * Counts of the stored objects by dimensions, null till loaded. Loaded at startup and after each import.
+     */
+    private volatile DimensionGrid grid;
+
+    /**
+     * Hash of the stored objects the grid was loaded from, see {@link #version()}.
+     */
+    private volatile long version;
+
+    /**
+     * Objects looked up by id from the database, invalidated after each import.
+     */
+    private final ObjectCache cache = new ObjectCache(CACHE_SIZE);
+
+    /**
+     * Raw dimension texts looked up by hash from met_dimensions.
+     */
+    private final DimensionDictionary dictionary = new DimensionDictionary(DICTIONARY_SIZE);
+
+    enum QueryEngine {
+        /**
+         * List fitting objects by a database query.
+         */
+        SQL,
+        /**
+         * List fitting objects from an in-memory copy of the stored objects, loaded at startup and after each import.
+         * Queries use the database till the copy is loaded.
+         */
+        MEMORY
+    }
 
     void initDb() {
         String[] sqlStatements = {
-                "drop table met_objects if exists",
+                "drop table if exists met_objects",
+                "drop table if exists met_dimensions",
                 // primary index on id to find objects by id efficiently
-                "create table met_objects(id BIGINT PRIMARY KEY, dim VARCHAR(5000), height DOUBLE, width DOUBLE, depth DOUBLE, weight DOUBLE)",
-                // secondary index to find objects by dimensions efficiently, order defined by importance of dimension
-                "create index dimensions on met_objects(height, width, depth, weight)"
+                "create table met_objects(id BIGINT PRIMARY KEY, " + COLUMNS + ")",
+                "create table " + DICTIONARY
         };
         Arrays.asList(sqlStatements).forEach(jdbcTemplate::execute);
+        // secondary indexes to find objects by dimensions efficiently
+        for (String[] index : INDEXES) {
+            jdbcTemplate.execute("create index " + index[0] + " on met_objects(" + index[1] + ")");
+        }
+    }
+
+    /**
+     * Create the tables if they do not exist, objects stored by former imports are kept. Tables of former versions
+     * get the dimension hash column, their objects are updated once by the next incremental import. Raw dimension
+     * texts stored with the objects by former versions are moved to the dictionary.
+     */
+    void initDbIfMissing() {
+        String[] sqlStatements = {
+                "create table if not exists met_objects(id BIGINT PRIMARY KEY, " + COLUMNS + ")",
+                "alter table met_objects add column if not exists dim_hash BIGINT",
+                "create table if not exists " + DICTIONARY
+        };
+        Arrays.asList(sqlStatements).forEach(jdbcTemplate::execute);
+        var rawColumns = jdbcTemplate.queryForObject("select count(*) from information_schema.columns "
+                + "where lower(table_name) = 'met_objects' and lower(column_name) = 'dim'", Integer.class);
+        if (rawColumns != null && rawColumns > 0) {
+            log.info("Move raw dimensions to dictionary ...");
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.execute("insert into met_dimensions (hash, dim) "
+                        + "select dim_hash, min(dim) from met_objects where dim_hash is not null "
+                        + "and dim_hash not in (select hash from met_dimensions) group by dim_hash");
+                jdbcTemplate.execute("alter table met_objects drop column dim");
+            });
+        }
+        for (String[] index : INDEXES) {
+            jdbcTemplate.execute("create index if not exists " + index[0] + " on met_objects(" + index[1] + ")");
+        }
+    }
+
+    /**
+     * Load ids and dimension hashes of all stored objects.
+     */
+    ImportedObjects loadImported() {
+
+        var count = jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class);
+        var imported = new ImportedObjects(count == null ? 0 : count);
+        jdbcTemplate.query("select id, dim_hash from met_objects order by id",
+                rs -> {
+                    imported.add(rs.getLong(1), rs.getLong(2));
+                });
+
+        log.info("Loaded stored objects. size={}", imported.size());
+        return imported;
     }
 
     void batchInsert(List<MetObject> objects) {
+        batchInsert(objects, new HashSet<>());
+    }
+
+    /**
+     * Insert objects of an import written by concurrent writers, see {@link #insertDimensions(List, Set)}.
+     *
+     * @param written hashes of the raw dimension texts written by the import so far, updated
+     */
+    void batchInsert(List<MetObject> objects, Set<Long> written) {
+        insertDimensions(objects, written);
+        batchInsert("met_objects", objects);
+    }
+
+    /**
+     * Insert new and update stored objects of a batch in one transaction. The dimension hash is stored with the
+     * object, an interrupted import skips the committed objects when restarted.
+     *
+     * @param written hashes of the raw dimension texts written by the import so far, updated
+     */
+    void batchUpsert(List<MetObject> objects, ImportedObjects imported, Set<Long> written) {
+
+        var updates = new ArrayList<MetObject>();
+        var inserts = new ArrayList<MetObject>();
+        objects.forEach(obj -> (imported.contains(obj.getId()) ? updates : inserts).add(obj));
+
+        log.info("Upsert data batch ... inserts={}, updates={}", inserts.size(), updates.size());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            insertDimensions(objects, written);
+            jdbcTemplate.batchUpdate(
+                    "update met_objects set dim_hash = ?, height = ?, width = ?, depth = ?, weight = ? where id = ?",
+                    updates,
+                    Math.max(updates.size(), 1),
+                    (ps, obj) -> {
+                        ps.setLong(1, obj.dimensionHash());
+                        ps.setDouble(2, obj.getDimension().getHeight());
+                        ps.setDouble(3, obj.getDimension().getWidth());
+                        ps.setDouble(4, obj.getDimension().getDepth());
+                        ps.setDouble(5, obj.getDimension().getWeight());
+                        ps.setLong(6, obj.getId());
+                    });
+            batchInsert("met_objects", inserts);
+        });
+    }
+
+    /**
+     * Delete objects by id, used for objects gone from the import file.
+     */
+    void batchDelete(long[] ids) {
+
+        log.info("Delete objects ... size={}", ids.length);
+
+        jdbcTemplate.batchUpdate("delete from met_objects where id = ?",
+                Arrays.stream(ids).boxed().collect(Collectors.toList()),
+                BATCH_SIZE,
+                (ps, id) -> ps.setLong(1, id));
+    }
+
+    /**
+     * Insert the raw dimension texts of objects missing in the dictionary. Each text is written by the first batch of
+     * an import adding its hash to the written hashes, concurrent writers sharing a concurrent set never insert the
+     * same text twice.
+     */
+    private void insertDimensions(List<MetObject> objects, Set<Long> written) {
+
+        var missing = new LinkedHashMap<Long, String>();
+        for (MetObject obj : objects) {
+            if (written.add(obj.dimensionHash())) {
+                missing.put(obj.dimensionHash(), obj.getDimensionRaw());
+            }
+        }
+        insertDimensions(missing);
+    }
+
+    /**
+     * Insert raw dimension texts by hash, texts already in the dictionary are removed from the map and skipped.
+     */
+    private void insertDimensions(Map<Long, String> missing) {
+
+        queryIn("select hash from met_dimensions where hash in", new ArrayList<>(missing.keySet()),
+                rs -> {
+                    missing.remove(rs.getLong(1));
+                });
+        writeDimensions("met_dimensions", missing);
+    }
+
+    private void writeDimensions(String table, Map<Long, String> missing) {
+        jdbcTemplate.batchUpdate("insert into " + table + " (hash, dim) values(?,?)",
+                new ArrayList<>(missing.entrySet()),
+                BATCH_SIZE,
+                (ps, entry) -> {
+                    ps.setLong(1, entry.getKey());
+                    ps.setString(2, entry.getValue());
+                });
+    }
+
+    /**
+     * Delete raw dimension texts no longer referenced by an object, left by changed and deleted objects.
+     */
+    void deleteUnusedDimensions() {
+
+        var referenced = queryLongs("select distinct dim_hash from met_objects");
+        var unused = new ArrayList<Long>();
+        jdbcTemplate.query("select hash from met_dimensions",
+                rs -> {
+                    if (Arrays.binarySearch(referenced, rs.getLong(1)) < 0) {
+                        unused.add(rs.getLong(1));
+                    }
+                });
+
+        log.info("Delete unused raw dimensions ... size={}", unused.size());
+
+        jdbcTemplate.batchUpdate("delete from met_dimensions where hash = ?", unused, BATCH_SIZE,
+                (ps, hash) -> ps.setLong(1, hash));
+    }
+
+    /**
+     * @return the numbers of the first column of the rows, sorted
+     */
+    private long[] queryLongs(String sql) {
+        var values = LongStream.builder();
+        jdbcTemplate.query(sql,
+                rs -> {
+                    values.add(rs.getLong(1));
+                });
+        return values.build().sorted().toArray();
+    }
+
+    /**
+     * Create an empty staging table for a bulk load. The table has no primary key and no indices, they are created
+     * once all objects are loaded, see {@link #swapStaging()}. Raw dimension texts are added to the dictionary
+     * directly, readers of the former objects only miss texts once the unused ones are deleted. Texts of partitions
+     * are collected in a staging dictionary, see {@link #stagePartition(List, Set)}.
+     */
+    void initStaging() {
+        String[] sqlStatements = {
+                "drop table if exists met_objects_staging",
+                "create table met_objects_staging(id BIGINT NOT NULL, " + COLUMNS + ")",
+                "drop table if exists met_dimensions_staging",
+                "create table met_dimensions_staging(hash BIGINT NOT NULL, dim VARCHAR(5000))",
+                "create table if not exists " + DICTIONARY
+        };
+        Arrays.asList(sqlStatements).forEach(jdbcTemplate::execute);
+    }
+
+    /**
+     * Load objects into the staging table, PostgreSQL is loaded by COPY, other databases by batch inserts.
+     *
+     * @param written hashes of the raw dimension texts written by the import so far, updated
+     */
+    void bulkInsert(List<MetObject> objects, Set<Long> written) {
+        insertDimensions(objects, written);
+        stage(objects);
+    }
+
+    /**
+     * Load objects of a partition into the staging table, see {@link ImportCoordinator}. Partitions are staged
+     * concurrently in transactions of their own, raw dimension texts missing in the dictionary are loaded into the
+     * staging dictionary without a key. Concurrent partitions may stage the same text, texts are merged into the
+     * dictionary by {@link #swapStaging()}.
+     *
+     * @param staged hashes of the texts staged by the partition so far, updated
+     */
+    void stagePartition(List<MetObject> objects, Set<Long> staged) {
+
+        var missing = new LinkedHashMap<Long, String>();
+        for (MetObject obj : objects) {
+            if (staged.add(obj.dimensionHash())) {
+                missing.put(obj.dimensionHash(), obj.getDimensionRaw());
+            }
+        }
+        queryIn("select hash from met_dimensions where hash in", new ArrayList<>(missing.keySet()),
+                rs -> {
+                    missing.remove(rs.getLong(1));
+                });
+        writeDimensions("met_dimensions_staging", missing);
+        stage(objects);
+    }
+
+    private void stage(List<MetObject> objects) {
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (connection.isWrapperFor(PGConnection.class)) {
+                log.info("Copy data batch ... size={}", objects.size());
+                copy(connection.unwrap(PGConnection.class), objects);
+            } else {
+                batchInsert("met_objects_staging", objects);
+            }
+            return null;
+        });
+    }
+
+    private void copy(PGConnection connection, List<MetObject> objects) throws SQLException {
+
+        var csv = new StringBuilder(objects.size() * 128);
+        for (MetObject obj : objects) {
+            csv.append(obj.getId())
+                    .append(',').append(obj.dimensionHash())
+                    .append(',').append(obj.getDimension().getHeight())
+                    .append(',').append(obj.getDimension().getWidth())
+                    .append(',').append(obj.getDimension().getDepth())
+                    .append(',').append(obj.getDimension().getWeight())
+                    .append('\n');
+        }
+        try {
+            connection.getCopyAPI().copyIn(
+                    "COPY met_objects_staging (id, dim_hash, height, width, depth, weight) "
+                            + "FROM STDIN WITH (FORMAT csv)",
+                    new StringReader(csv.toString()));
+        } catch (IOException e) {
+            throw new SQLException("Copy into staging table failed", e);
+        }
+    }
+
+    /**
+     * Create primary key and indices on the loaded staging table and replace met_objects by it. Readers see the
+     * former objects till the replacement is committed, the replacement is atomic on PostgreSQL (transactional DDL).
+     * Other databases like H2 commit each DDL statement, readers would miss the table between drop and rename. The
+     * staged objects replace the stored ones in one transaction of a delete and an insert there, see
+     * {@link #copyStaging()}. Texts of the staging dictionary are merged into the dictionary before.
+     */
+    void swapStaging() {
+
+        jdbcTemplate.execute("insert into met_dimensions (hash, dim) "
+                + "select hash, min(dim) from met_dimensions_staging "
+                + "where hash not in (select hash from met_dimensions) group by hash");
+        jdbcTemplate.execute("drop table met_dimensions_staging");
+
+        if (!isPostgres()) {
+            copyStaging();
+            return;
+        }
+
+        log.info("Create indices on staging table ...");
+
+        // index names are unique per database schema, the former table keeps its names till it is dropped
+        var suffix = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+        jdbcTemplate.execute("alter table met_objects_staging add constraint met_objects_pk_" + suffix + " primary key (id)");
+        for (String[] index : INDEXES) {
+            jdbcTemplate.execute("create index " + index[0] + "_" + suffix + " on met_objects_staging(" + index[1] + ")");
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("drop table if exists met_objects");
+            jdbcTemplate.execute("alter table met_objects_staging rename to met_objects");
+            // incremental imports expect the index names of initDb
+            for (String[] index : INDEXES) {
+                jdbcTemplate.execute("alter index " + index[0] + "_" + suffix + " rename to " + index[0]);
+            }
+        });
+
+        log.info("Staging table swapped.");
+    }
+
+    /**
+     * Replace the stored objects by the staged ones in one transaction, the indexed table is kept. Loads the indices
+     * row by row unlike a swap, but readers never see a missing or partially loaded table.
+     */
+    private void copyStaging() {
+
+        log.info("Copy staging table ...");
+
+        initDbIfMissing();
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("delete from met_objects");
+            jdbcTemplate.execute("insert into met_objects (id, dim_hash, height, width, depth, weight) "
+                    + "select id, dim_hash, height, width, depth, weight from met_objects_staging");
+        });
+        jdbcTemplate.execute("drop table met_objects_staging");
+
+        log.info("Staging table copied.");
+    }
+
+    /**
+     * Restore the in-memory engine from a snapshot, stats and queries of it are answered from the snapshot right away.
+     * The database is not changed, see {@link #store(ObjectSnapshot)}.
+     */
+    void restore(ObjectSnapshot snapshot) {
+
+        log.info("Restore snapshot ... size={}", snapshot.size());
+
+        var restoredGrid = new DimensionGrid(snapshot.size());
+        snapshot.forEach((id, dimHash, height, width, depth, weight) ->
+                restoredGrid.add(id, height, width, depth, weight));
+        restoredGrid.build();
+        version = version(snapshot);
+        grid = restoredGrid;
+        if (queryEngine == QueryEngine.MEMORY) {
+            var restoredColumns = new MetObjectColumns(snapshot.size());
+            snapshot.forEach(restoredColumns::add);
+            restoredColumns.buildIndex();
+            columns = restoredColumns;
+        }
+        cache.invalidateAll();
+
+        log.info("Restored snapshot into memory. version={}", Long.toHexString(version));
+    }
+
+    /**
+     * Replace the stored objects by the objects of a snapshot, loaded like a bulk import. Objects of a snapshot without
+     * raw dimension texts keep the texts stored in the dictionary, if any. The in-memory engine is reloaded from the
+     * database once it is loaded, like after an import. The database is not loaded if it already stores the objects of
+     * the snapshot, i.e. has the same {@link #version()}.
+     */
+    void store(ObjectSnapshot snapshot) {
+
+        initDbIfMissing();
+        long snapshotVersion = version(snapshot);
+        long storedVersion = storedVersion();
+        if (storedVersion == snapshotVersion) {
+            log.info("Database stores the snapshot. version={}", Long.toHexString(storedVersion));
+            return;
+        }
+        log.info("Store snapshot ... size={} version={}, stored version={}", snapshot.size(),
+                Long.toHexString(snapshotVersion), Long.toHexString(storedVersion));
+
+        initStaging();
+        var stored = queryLongs("select hash from met_dimensions");
+        var raws = new LinkedHashMap<Long, String>();
+        for (int i = 0; i < snapshot.rawSize(); i++) {
+            if (Arrays.binarySearch(stored, snapshot.rawHash(i)) < 0) {
+                raws.put(snapshot.rawHash(i), snapshot.raw(i));
+            }
+        }
+        writeDimensions("met_dimensions", raws);
+
+        var objects = new ArrayList<MetObject>(BATCH_SIZE);
+        snapshot.forEach((id, dimHash, height, width, depth, weight) -> {
+            objects.add(MetObject.builder().id(id).dimensionHash(dimHash)
+                    .dimension(new Dimension(height, width, depth, weight)).build());
+            if (objects.size() == BATCH_SIZE) {
+                stage(objects);
+                objects.clear();
+            }
+        });
+        stage(objects);
+        swapStaging();
+        importFinished();
+    }
+
+    /**
+     * @return the version of the objects of a snapshot, equal to the {@link #version()} of the same objects stored
+     */
+    private static long version(ObjectSnapshot snapshot) {
+        var version = new long[1];
+        snapshot.forEach((id, dimHash, height, width, depth, weight) ->
+                version[0] += rowHash(id, dimHash, height, width, depth, weight));
+        return version[0];
+    }
+
+    /**
+     * Load the stored objects into a snapshot, see {@link ObjectSnapshot#ObjectSnapshot(long, long, long, boolean,
+     * int)} for the parameters.
+     */
+    ObjectSnapshot snapshot(long sourceSize, long sourceModified, long importSize, boolean rawDimensions) {
+
+        var count = jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class);
+        var snapshot = new ObjectSnapshot(sourceSize, sourceModified, importSize, rawDimensions,
+                count == null ? 0 : count);
+        jdbcTemplate.query("select id, dim_hash, height, width, depth, weight from met_objects order by id",
+                rs -> {
+                    snapshot.add(rs.getLong(1), rs.getLong(2),
+                            rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+                });
+        if (rawDimensions) {
+            jdbcTemplate.query("select hash, dim from met_dimensions",
+                    rs -> {
+                        snapshot.addRaw(rs.getLong(1), rs.getString(2));
+                    });
+        }
+        return snapshot;
+    }
+
+    /**
+     * Load the objects into memory unless restored from a snapshot or reloaded by an import already.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void loadColumnsOnStartup() {
+        if (queryEngine == QueryEngine.MEMORY && columns == null) {
+            try {
+                loadColumns();
+            } catch (DataAccessException e) {
+                log.warn("Loading objects into memory failed, queries use the database.", e);
+            }
+        }
+    }
+
+    /**
+     * Load the object counts unless restored from a snapshot or reloaded by an import already.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void loadGridOnStartup() {
+        if (grid != null) {
+            return;
+        }
+        try {
+            loadGrid();
+        } catch (DataAccessException e) {
+            log.warn("Loading object counts failed, stats are available after the next import.", e);
+        }
+    }
+
+    /**
+     * Called by the import when all objects are stored.
+     */
+    void importFinished() {
+        deleteUnusedDimensions();
+        analyze();
+        reload();
+    }
+
+    /**
+     * Reload the in-memory copies of the stored objects and invalidate the cache, called when an import finished.
+     */
+    void reload() {
+        if (queryEngine == QueryEngine.MEMORY) {
+            loadColumns();
+        }
+        loadGrid();
+        log.info("Invalidate object cache, size={}, hits={}, misses={}, evictions={}, "
+                        + "dictionary hits={}, misses={}, evictions={}", cache.size(), cache.hits(), cache.misses(),
+                cache.evictions(), dictionary.hits(), dictionary.misses(), dictionary.evictions());
+        cache.invalidateAll();
+    }
+
+    private synchronized void loadColumns() {
+
+        log.info("Load objects into memory ...");
+
+        var count = jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class);
+        var loaded = new MetObjectColumns(count == null ? 0 : count);
+        jdbcTemplate.query("select id, dim_hash, height, width, depth, weight from met_objects",
+                rs -> {
+                    loaded.add(rs.getLong(1), rs.getLong(2),
+                            rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+                });
+        loaded.buildIndex();
+        columns = loaded;
+
+        log.info("Loaded objects into memory. size={}", loaded.size());
+    }
+
+    private synchronized void loadGrid() {
+
+        log.info("Load object counts ...");
+
+        var count = jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class);
+        var loaded = new DimensionGrid(count == null ? 0 : count);
+        var loadedVersion = new long[1];
+        jdbcTemplate.query("select id, dim_hash, height, width, depth, weight from met_objects",
+                rs -> {
+                    long id = rs.getLong(1);
+                    double height = rs.getDouble(3);
+                    double width = rs.getDouble(4);
+                    double depth = rs.getDouble(5);
+                    double weight = rs.getDouble(6);
+                    loaded.add(id, height, width, depth, weight);
+                    loadedVersion[0] += rowHash(id, rs.getLong(2), height, width, depth, weight);
+                });
+        loaded.build();
+        version = loadedVersion[0];
+        grid = loaded;
+
+        log.info("Loaded object counts. size={}, version={}", loaded.size(), Long.toHexString(loadedVersion[0]));
+    }
+
+    /**
+     * @return the {@link #version()} of the objects stored in the database, summed up without loading them
+     */
+    private long storedVersion() {
+        var storedVersion = new long[1];
+        jdbcTemplate.query("select id, dim_hash, height, width, depth, weight from met_objects",
+                rs -> {
+                    storedVersion[0] += rowHash(rs.getLong(1), rs.getLong(2),
+                            rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+                });
+        return storedVersion[0];
+    }
+
+    /**
+     * Version of the stored objects, a hash of all objects independent of their order. Instances loading the same
+     * objects get the same version, it changes with any imported change of an object.
+     *
+     * @return the version, null till the object counts are loaded
+     */
+    Long version() {
+        return grid == null ? null : version;
+    }
+
+    /**
+     * Hash of one stored object, summed up to the {@link #version()}.
+     */
+    static long rowHash(long id, long dimHash, double height, double width, double depth, double weight) {
+        long hash = mix(id);
+        hash = mix(hash ^ dimHash);
+        hash = mix(hash ^ Double.doubleToLongBits(height));
+        hash = mix(hash ^ Double.doubleToLongBits(width));
+        hash = mix(hash ^ Double.doubleToLongBits(depth));
+        return mix(hash ^ Double.doubleToLongBits(weight));
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreads each input bit over all output bits.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Update the statistics of met_objects, the planner estimates the selectivity of the dimension indexes by them.
+     */
+    void analyze() {
+        jdbcTemplate.execute(isPostgres() ? "analyze met_objects" : "analyze table met_objects");
+    }
+
+    private boolean isPostgres() {
+        return Boolean.TRUE.equals(jdbcTemplate.execute(
+                (ConnectionCallback<Boolean>) connection -> connection.isWrapperFor(PGConnection.class)));
+    }
+
+    private void batchInsert(String table, List<MetObject> objects) {
 
         log.info("Insert data batch ... size={}", objects.size());
 
         jdbcTemplate.batchUpdate(
-                "insert into met_objects (id, dim, height, width, depth, weight) values(?,?,?,?,?,?)",
+                "insert into " + table + " (id, dim_hash, height, width, depth, weight) values(?,?,?,?,?,?)",
                 objects,
-                BATCH_SIZE,
+                Math.max(objects.size(), 1),
                 (ps, obj) -> {
                     ps.setLong(1, obj.getId());
-                    ps.setString(2, obj.getDimensionRaw());
+                    ps.setLong(2, obj.dimensionHash());
                     ps.setDouble(3, obj.getDimension().getHeight());
                     ps.setDouble(4, obj.getDimension().getWidth());
                     ps.setDouble(5, obj.getDimension().getDepth());
@@ -54,7 +721,7 @@ public class MetObjectService {
     private MetObject mapToMetObject(ResultSet rs) throws SQLException {
         return MetObject.builder()
                 .id(rs.getLong("id"))
-                .dimensionRaw(rs.getString("dim"))
+                .dimensionHash(rs.getLong("dim_hash"))
                 .dimension(new Dimension(
                         rs.getDouble("height"),
                         rs.getDouble("width"),
@@ -63,11 +730,73 @@ public class MetObjectService {
                 )).build();
     }
 
-    private MetObject findById(long id) {
+    /**
+     * Set the raw dimension texts of objects loaded without, from the dictionary cache or else by one query per
+     * {@link #FIT_CHUNK_SIZE} missing texts. Only objects of a response requesting the texts get them, the objects
+     * must not be shared with other requests.
+     *
+     * @param rawDimensions false if the response does not include the texts, the objects are left without
+     */
+    private <C extends Collection<MetObject>> C withDimensionRaw(C objects, boolean rawDimensions) {
+
+        if (!rawDimensions) {
+            return objects;
+        }
+        var missing = new HashMap<Long, List<MetObject>>();
+        for (MetObject obj : objects) {
+            if (obj.getDimensionRaw() == null) {
+                var raw = dictionary.get(obj.dimensionHash());
+                if (raw != null) {
+                    obj.setDimensionRaw(raw);
+                } else {
+                    missing.computeIfAbsent(obj.dimensionHash(), hash -> new ArrayList<>()).add(obj);
+                }
+            }
+        }
+        queryIn("select hash, dim from met_dimensions where hash in", new ArrayList<>(missing.keySet()),
+                rs -> {
+                    var raw = rs.getString(2);
+                    dictionary.put(rs.getLong(1), raw);
+                    missing.get(rs.getLong(1)).forEach(obj -> obj.setDimensionRaw(raw));
+                });
+        return objects;
+    }
+
+    /**
+     * Query rows by a list of values, one query per {@link #FIT_CHUNK_SIZE} values.
+     *
+     * @param sql query ending with "column in", the list of placeholders is appended
+     */
+    private void queryIn(String sql, List<Long> values, RowCallbackHandler handler) {
+        for (int from = 0; from < values.size(); from += FIT_CHUNK_SIZE) {
+            var chunk = values.subList(from, Math.min(from + FIT_CHUNK_SIZE, values.size()));
+            jdbcTemplate.query(sql + " (" + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")",
+                    chunk.toArray(), handler);
+        }
+    }
+
+    /**
+     * Find an object by id, from the in-memory copy if loaded, else from the database through the object cache.
+     * Cached objects are shared by all requests and kept without their raw dimension text, a copy gets the text.
+     *
+     * @return the object or null if not found
+     */
+    private MetObject findById(long id, boolean rawDimensions) {
+
+        var columns = this.columns;
+        var object = columns != null ? columns.findById(id) : cache.get(id, this::loadById);
+        if (object == null || !rawDimensions) {
+            return object;
+        }
+        return withDimensionRaw(List.of(columns != null ? object : object.copy()), true).get(0);
+    }
+
+    private MetObject loadById(long id) {
 
         var sql = "select * from met_objects WHERE id = ?";
 
-        return jdbcTemplate.queryForObject(sql, new Object[]{id}, (rs, rowNum) -> mapToMetObject(rs));
+        var objects = jdbcTemplate.query(sql, new Object[]{id}, (rs, rowNum) -> mapToMetObject(rs));
+        return objects.isEmpty() ? null : objects.get(0);
     }
 
 
@@ -76,12 +805,13 @@ public class MetObjectService {
      *
      * @param id                the met object id
      * @param dimensionBoundary the dimension boundaries to check for
+     * @param rawDimensions     false if the raw dimension text of the object is not needed
      * @return returns {@link DimensionBoundaryFitResult#fits} true if the object is within the specified dimension
      * boundaries, else false. If a object is not found by id (dimensions not available/parsable) return false.
      */
-    DimensionBoundaryFitResult doesItFit(Long id, DimensionBoundary dimensionBoundary) {
+    DimensionBoundaryFitResult doesItFit(Long id, DimensionBoundary dimensionBoundary, boolean rawDimensions) {
 
-        var object = findById(id);
+        var object = metrics.findById(dimensionBoundary).record(() -> findById(id, rawDimensions));
         var fits = false;
 
         if (object != null) {
@@ -92,24 +822,170 @@ public class MetObjectService {
     }
 
     /**
-     * List fitting MET objects for the specified dimension boundaries.
+     * Check if many MET objects are within the same dimension boundaries.
+     *
+     * @param ids               the met object ids, duplicates are checked once
+     * @param dimensionBoundary the dimension boundaries to check for
+     * @param rawDimensions     false if the raw dimension texts of the objects are not needed
+     * @return a result per requested id in request order, ids of objects not found (dimensions not
+     * available/parsable) are reported as not found
+     */
+    List<IdFitResult> doObjectsFit(List<Long> ids, DimensionBoundary dimensionBoundary, boolean rawDimensions) {
+
+        var objects = findByIds(ids, rawDimensions);
+
+        return ids.stream()
+                .map(id -> {
+                    var object = objects.get(id);
+                    var fits = object != null && object.getDimension().doesItFit(dimensionBoundary);
+                    return new IdFitResult(id, object != null, fits, object);
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Find objects by id, from the in-memory copy if loaded, else from the database in chunks of
+     * {@link #FIT_CHUNK_SIZE} ids per query.
+     */
+    private Map<Long, MetObject> findByIds(List<Long> ids, boolean rawDimensions) {
+
+        var distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        var objects = new HashMap<Long, MetObject>();
+
+        var columns = this.columns;
+        if (columns != null) {
+            for (long id : distinct) {
+                var object = columns.findById(id);
+                if (object != null) {
+                    objects.put(id, object);
+                }
+            }
+        } else {
+            queryIn("select * from met_objects where id in", distinct, rs -> {
+                var object = mapToMetObject(rs);
+                objects.put(object.getId(), object);
+            });
+        }
+        withDimensionRaw(objects.values(), rawDimensions);
+        return objects;
+    }
+
+    /**
+     * List fitting MET objects for the specified dimension boundaries, ordered by id. Pages are requested by the id of
+     * the last object of the former page (keyset pagination).
      * <p>IMPORTANT: NOT every object has ALL dimensions</p>
      * <p> min boundaries, require the dimension to be available, else considered as not fitting. <p>
      * <p> max boundaries, don't require the dimension to be available, only limiting it if present. </p>
      *
      * @param dimensionBoundary the dimension boundaries to check for
+     * @param after             only objects with a greater id are listed, null to start with the smallest id
+     * @param size              maximum number of objects listed
+     * @param rawDimensions     false if the raw dimension texts of the objects are not needed
      * @return MET objects fitting the specified dimension boundaries
      */
-    List<DimensionBoundaryFitResult> listFittingObjects(DimensionBoundary dimensionBoundary) {
+    List<DimensionBoundaryFitResult> listFittingObjects(DimensionBoundary dimensionBoundary, Long after, int size,
+                                                        boolean rawDimensions) {
+
+        return metrics.listFitting(dimensionBoundary)
+                .record(() -> queryFittingObjects(dimensionBoundary, after, size, rawDimensions));
+    }
+
+    private List<DimensionBoundaryFitResult> queryFittingObjects(DimensionBoundary dimensionBoundary, Long after,
+                                                                 int size, boolean rawDimensions) {
+
+        var columns = this.columns;
+        if (columns != null) {
+            var objects = columns.listFitting(dimensionBoundary, after == null ? Long.MIN_VALUE : after, size);
+            return withDimensionRaw(objects, rawDimensions).stream()
+                    .map(obj -> new DimensionBoundaryFitResult(true, obj))
+                    .collect(Collectors.toList());
+        }
+
+        var query = FittingQuery.page(dimensionBoundary, after, size);
+        var objects = jdbcTemplate.query(query.sql, query.args, (rs, n) -> mapToMetObject(rs));
+        return withDimensionRaw(objects, rawDimensions).stream()
+                .map(obj -> new DimensionBoundaryFitResult(true, obj))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Count the MET objects fitting the specified dimension boundaries, see {@link DimensionGrid}.
+     *
+     * @return count and histogram of each dimension, null if the counts are not loaded yet
+     */
+    DimensionStats stats(DimensionBoundary dimensionBoundary) {
+
+        var grid = this.grid;
+        return grid == null ? null : grid.stats(dimensionBoundary);
+    }
+
+    /**
+     * Rank the MET objects fitting the specified dimension boundaries by their distance to a target dimension, see
+     * {@link DimensionGrid#nearest(DimensionBoundary, Dimension, DistanceMetric, int)}.
+     *
+     * @param target        dimensions to compare, -1 for dimensions not compared
+     * @param k             maximum number of objects ranked
+     * @param rawDimensions false if the raw dimension texts of the objects are not needed
+     * @return up to k objects, nearest first, ties ordered by id, null if the counts are not loaded yet
+     */
+    List<RankedObject> nearest(DimensionBoundary dimensionBoundary, Dimension target, DistanceMetric metric, int k,
+                               boolean rawDimensions) {
 
-        var sql = "select * from met_objects "
-                + "where  height between ? and ? "
-                + "and width between ? and ? "
-                + "and depth between ? and ? "
-                + "and weight between ? and ? "
-                + "limit 50";
+        var grid = this.grid;
+        if (grid == null) {
+            return null;
+        }
+        return metrics.nearest(dimensionBoundary).record(() -> {
+            var neighbors = grid.nearest(dimensionBoundary, target, metric, k);
+            var ids = new ArrayList<Long>(neighbors.size());
+            for (int i = 0; i < neighbors.size(); i++) {
+                ids.add(neighbors.id(i));
+            }
+            var objects = findByIds(ids, rawDimensions);
+            var ranked = new ArrayList<RankedObject>(neighbors.size());
+            for (int i = 0; i < neighbors.size(); i++) {
+                // objects removed by an import since the grid was built are left out
+                var object = objects.get(neighbors.id(i));
+                if (object != null) {
+                    ranked.add(new RankedObject(neighbors.distance(i), object));
+                }
+            }
+            return ranked;
+        });
+    }
 
-        return jdbcTemplate.query(sql, dimensionBoundary.args(),
-                (rs, n) -> new DimensionBoundaryFitResult(true, mapToMetObject(rs)));
+    /**
+     * Stream all MET objects fitting the specified dimension boundaries ordered by id, see
+     * {@link #listFittingObjects(DimensionBoundary, Long, int, boolean)}. Objects are always read from the database,
+     * rows are fetched in chunks of {@link #FETCH_SIZE} and passed to the consumer a chunk at a time, once the chunk
+     * got its raw dimension texts if requested.
+     */
+    void streamFittingObjects(DimensionBoundary dimensionBoundary, Long after, boolean rawDimensions,
+                              Consumer<DimensionBoundaryFitResult> consumer) {
+
+        var query = FittingQuery.stream(dimensionBoundary, after);
+        var chunk = new ArrayList<MetObject>(FETCH_SIZE);
+        Runnable flush = () -> {
+            withDimensionRaw(chunk, rawDimensions)
+                    .forEach(obj -> consumer.accept(new DimensionBoundaryFitResult(true, obj)));
+            chunk.clear();
+        };
+        // PostgreSQL only fetches in chunks within a transaction, else the complete result is loaded
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.query(
+                    connection -> {
+                        var ps = connection.prepareStatement(query.sql);
+                        ps.setFetchSize(FETCH_SIZE);
+                        new ArgumentPreparedStatementSetter(query.args).setValues(ps);
+                        return ps;
+                    },
+                    (RowCallbackHandler) rs -> {
+                        chunk.add(mapToMetObject(rs));
+                        if (chunk.size() == FETCH_SIZE) {
+                            flush.run();
+                        }
+                    });
+            flush.run();
+        });
     }
 }
@@ -1,31 +1,345 @@
 package de.eblaas.museum;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.eblaas.museum.Dimension.DimensionBoundary;
-import de.eblaas.museum.Dimension.DimensionBoundaryFitResult;
+import de.eblaas.museum.Dimension.DimensionBoundaryFitRequest;
+import de.eblaas.museum.Dimension.DimensionStats;
+import de.eblaas.museum.Dimension.DistanceMetric;
+import de.eblaas.museum.Dimension.IdFitResult;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
-import java.util.List;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
+/**
+ * Queries and streams run asynchronously in the {@link QueryBulkhead}, the servlet thread is released while waiting
+ * for the database. A request finding the bulkhead full, or waiting longer than the query timeout, is answered with
+ * 503 Service Unavailable.
+ */
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/api/v1/objects")
 class MetObjectsApi {
 
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    static final int MAX_PAGE_SIZE = 1000;
+
+    static final int MAX_FIT_IDS = 10_000;
+
+    static final int MAX_NEAREST = 1000;
+
+    /**
+     * Streamed objects are sent in chunks of about this many bytes.
+     */
+    static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
     private final MetObjectService service;
+    private final ObjectMapper objectMapper;
+    private final QueryBulkhead bulkhead;
+
+    /**
+     * Maximum time of a request waiting for a query in the bulkhead and running it.
+     */
+    @Value("${query.timeout:30s}")
+    private Duration queryTimeout;
+
+    /**
+     * Maximum time of a stream, a stream still running, e.g. for a client that stopped reading, is stopped and its
+     * transaction rolled back.
+     */
+    @Value("${query.stream-timeout:10m}")
+    private Duration streamTimeout;
+
+
+    /**
+     * Check one object against the dimension boundaries.
+     */
+    @GetMapping(path = "/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public DeferredResult<MappingJacksonValue> doesItFit(
+            @PathVariable("id") long id, DimensionBoundary dimensionBoundary,
+            @RequestParam(name = "fields", required = false) Set<String> fields,
+            ServletWebRequest request) {
+        checkFields(fields);
+        if (notModified(request)) {
+            return null;
+        }
+        var raw = rawDimensions(fields);
+        return deferred(query(() -> service.doesItFit(id, dimensionBoundary, raw),
+                "fit", id, Arrays.asList(dimensionBoundary.args()), raw)
+                .thenApply(result -> project(result, fields)));
+    }
+
+
+    /**
+     * Check many objects against the same dimension boundaries, a result is listed per requested id in request order.
+     */
+    @PostMapping(path = "/fit", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public DeferredResult<MappingJacksonValue> doObjectsFit(
+            @RequestBody DimensionBoundaryFitRequest request,
+            @RequestParam(name = "fields", required = false) Set<String> fields) {
+        checkFields(fields);
+        var ids = request.getIds();
+        if (ids == null || ids.size() > MAX_FIT_IDS || ids.contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids have to be up to " + MAX_FIT_IDS + " ids");
+        }
+        var boundary = request.getBoundary();
+        if (boundary == null || Arrays.asList(boundary.args()).contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundary values must not be null");
+        }
+        var raw = rawDimensions(fields);
+        return deferred(query(() -> service.doObjectsFit(ids, boundary, raw),
+                "fitIds", ids, Arrays.asList(boundary.args()), raw)
+                .thenApply(results -> project(results, fields)));
+    }
+
+
+    /**
+     * List a page of fitting objects ordered by id, the next page starts after the id of the last object.
+     */
+    @GetMapping(path = "/", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public DeferredResult<MappingJacksonValue> listFittingObjects(
+            DimensionBoundary dimensionBoundary,
+            @RequestParam(name = "after", required = false) Long after,
+            @RequestParam(name = "size", defaultValue = "50") int size,
+            @RequestParam(name = "fields", required = false) Set<String> fields,
+            ServletWebRequest request) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size has to be within 1 and " + MAX_PAGE_SIZE);
+        }
+        if (Arrays.asList(dimensionBoundary.args()).contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundary values must not be null");
+        }
+        checkFields(fields);
+        if (notModified(request)) {
+            return null;
+        }
+        var raw = rawDimensions(fields);
+        return deferred(query(() -> service.listFittingObjects(dimensionBoundary, after, size, raw),
+                "list", Arrays.asList(dimensionBoundary.args()), after, size, raw)
+                .thenApply(page -> project(page, fields)));
+    }
 
 
-    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    /**
+     * Count the fitting objects and their distribution over bins of each dimension.
+     */
+    @GetMapping(path = "/stats", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @ResponseBody
-    public DimensionBoundaryFitResult doesItFit(@PathVariable("id") long id, DimensionBoundary dimensionBoundary) {
-        return service.doesItFit(id, dimensionBoundary);
+    public DimensionStats stats(DimensionBoundary dimensionBoundary, ServletWebRequest request) {
+        if (Arrays.asList(dimensionBoundary.args()).contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundary values must not be null");
+        }
+        if (notModified(request)) {
+            return null;
+        }
+        var stats = service.stats(dimensionBoundary);
+        if (stats == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "object counts not loaded yet");
+        }
+        return stats;
     }
 
 
-    @GetMapping(path = "/", produces = MediaType.APPLICATION_JSON_VALUE)
+    /**
+     * Rank the fitting objects by their distance to a target size, nearest first. Target dimensions of -1 are not
+     * compared, at least one has to be given.
+     */
+    @GetMapping(path = "/nearest", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @ResponseBody
-    public List<DimensionBoundaryFitResult> listFittingObjects(DimensionBoundary dimensionBoundary) {
-        return service.listFittingObjects(dimensionBoundary);
+    public DeferredResult<MappingJacksonValue> nearest(
+            DimensionBoundary dimensionBoundary,
+            @RequestParam(name = "height", defaultValue = "-1") double height,
+            @RequestParam(name = "width", defaultValue = "-1") double width,
+            @RequestParam(name = "depth", defaultValue = "-1") double depth,
+            @RequestParam(name = "weight", defaultValue = "-1") double weight,
+            @RequestParam(name = "metric", defaultValue = "EUCLIDEAN") DistanceMetric metric,
+            @RequestParam(name = "k", defaultValue = "20") int k,
+            @RequestParam(name = "fields", required = false) Set<String> fields,
+            ServletWebRequest request) {
+        if (Arrays.asList(dimensionBoundary.args()).contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundary values must not be null");
+        }
+        if (k < 1 || k > MAX_NEAREST) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k has to be within 1 and " + MAX_NEAREST);
+        }
+        var values = new double[]{height, width, depth, weight};
+        if (Arrays.stream(values).anyMatch(value -> value != -1 && !(value > 0))
+                || Arrays.stream(values).allMatch(value -> value == -1)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "target dimensions have to be positive or -1, at least one positive");
+        }
+        checkFields(fields);
+        if (notModified(request)) {
+            return null;
+        }
+        var target = new Dimension(height, width, depth, weight);
+        var raw = rawDimensions(fields);
+        return deferred(query(() -> service.nearest(dimensionBoundary, target, metric, k, raw),
+                "nearest", Arrays.asList(dimensionBoundary.args()), height, width, depth, weight, metric, k, raw)
+                .thenApply(ranked -> {
+                    if (ranked == null) {
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                "object counts not loaded yet");
+                    }
+                    return project(ranked, fields);
+                }));
+    }
+
+
+    /**
+     * Stream all fitting objects ordered by id as newline delimited JSON, one object per line. An interrupted
+     * stream can be resumed after the id of the last received object. A stream runs on a worker of the bulkhead, it
+     * stops with the next object once the stream timed out or the client disconnected.
+     */
+    @GetMapping(path = "/stream", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> streamFittingObjects(
+            DimensionBoundary dimensionBoundary,
+            @RequestParam(name = "after", required = false) Long after,
+            @RequestParam(name = "fields", required = false) Set<String> fields,
+            ServletWebRequest request) {
+        if (Arrays.asList(dimensionBoundary.args()).contains(null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "boundary values must not be null");
+        }
+        checkFields(fields);
+        if (notModified(request)) {
+            return null;
+        }
+        var writer = objectMapper.writer(MetObject.fields(fields));
+        var ndjson = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+        var emitter = new ResponseBodyEmitter(streamTimeout.toMillis());
+        var closed = new AtomicBoolean();
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+        emitter.onCompletion(() -> closed.set(true));
+        try {
+            bulkhead.stream(() -> {
+                try {
+                    var chunk = new ByteArrayOutputStream(STREAM_CHUNK_SIZE + 1024);
+                    service.streamFittingObjects(dimensionBoundary, after, rawDimensions(fields), result -> {
+                        if (closed.get()) {
+                            throw new CancellationException("Stream closed");
+                        }
+                        try {
+                            writer.writeValue(chunk, result);
+                            chunk.write('\n');
+                            if (chunk.size() >= STREAM_CHUNK_SIZE) {
+                                emitter.send(chunk.toByteArray(), ndjson);
+                                chunk.reset();
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    if (chunk.size() > 0) {
+                        emitter.send(chunk.toByteArray(), ndjson);
+                    }
+                    emitter.complete();
+                } catch (IOException | RuntimeException e) {
+                    emitter.completeWithError(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "too many streams, retry later");
+        }
+        return ResponseEntity.ok().contentType(ndjson).body(emitter);
+    }
+
+    /**
+     * Run a query in the bulkhead, identical queries of the same version of the stored objects share one run. Called
+     * after {@link #notModified}, the version of the shared run is the one of the ETag or a later one.
+     *
+     * @param key identifies the result together with the version
+     */
+    private <T> CompletableFuture<T> query(Supplier<T> query, Object... key) {
+        try {
+            return bulkhead.submit(Arrays.asList(service.version(), Arrays.asList(key)), query);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "too many queries, retry later");
+        }
+    }
+
+    /**
+     * Answer the request with the response of a query, a request timing out before is answered with 503 Service
+     * Unavailable. The query is left running, it may be shared with other requests.
+     */
+    private DeferredResult<MappingJacksonValue> deferred(CompletableFuture<MappingJacksonValue> response) {
+        var result = new DeferredResult<MappingJacksonValue>(queryTimeout.toMillis());
+        response.whenComplete((body, e) -> {
+            if (e == null) {
+                result.setResult(body);
+            } else {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return result;
+    }
+
+    private static void checkFields(Set<String> fields) {
+        if (fields != null && !MetObject.FIELDS.containsAll(fields)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fields have to be of " + MetObject.FIELDS);
+        }
+    }
+
+    /**
+     * @return true if the response includes the raw dimension texts, they are looked up for the objects then
+     */
+    private static boolean rawDimensions(Set<String> fields) {
+        return fields == null || fields.contains("dimensionRaw");
+    }
+
+    /**
+     * Serialize only the requested properties of the objects of a response.
+     *
+     * @param fields the properties, null for all
+     */
+    private static MappingJacksonValue project(Object body, Set<String> fields) {
+        var value = new MappingJacksonValue(body);
+        value.setFilters(MetObject.fields(fields));
+        return value;
+    }
+
+    /**
+     * Check the ETag of the client against the version of the stored objects, the same query returns the same
+     * response till the next import changed an object. Called before querying, a response of objects changed
+     * meanwhile gets the former version and is fetched again by the next request.
+     *
+     * @return true if the copy of the client is current, the response status is set to 304 Not Modified
+     */
+    private boolean notModified(ServletWebRequest request) {
+        var version = service.version();
+        if (version == null) {
+            return false;
+        }
+        // responses of the same query differ by the requested encoding, compressed ones are equivalent
+        request.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        var accept = Objects.hashCode(request.getHeader(HttpHeaders.ACCEPT));
+        return request.checkNotModified(String.format("W/\"%016x-%08x\"", version, accept));
     }
 }
@@ -1,12 +1,16 @@
 package de.eblaas.museum;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import springfox.documentation.builders.ApiInfoBuilder;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.spi.DocumentationType;
@@ -42,5 +46,21 @@ public class MuseumServiceApplication {
             return new FileSystemResource(importFilePath);
         }
 
+        /**
+         * Serialize all properties of objects unless a response is projected, see {@link MetObject#fields}.
+         */
+        @Bean
+        public Jackson2ObjectMapperBuilderCustomizer objectFields() {
+            return builder -> builder.filters(MetObject.fields(null));
+        }
+
+        /**
+         * Responses encoded as CBOR if requested by the Accept header, configured like the JSON responses.
+         */
+        @Bean
+        public MappingJackson2CborHttpMessageConverter cborConverter(Jackson2ObjectMapperBuilder builder) {
+            return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+        }
+
     }
 }
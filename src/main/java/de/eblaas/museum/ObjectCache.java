@@ -0,0 +1,56 @@
+package de.eblaas.museum;
+
+import java.util.function.LongFunction;
+
+/**
+ * Bounded read-through cache of MET objects by id, ids of unknown objects are cached as not found too.
+ * <p>
+ * Objects are kept in a {@link StripedLru}, loaded outside of its locks. Concurrent misses of the same id may load it
+ * twice, a load racing with {@link #invalidateAll()} is not cached.
+ * </p>
+ */
+class ObjectCache {
+
+    private static final MetObject NOT_FOUND = MetObject.builder().id(-1).build();
+
+    private final StripedLru<Long, MetObject> objects;
+
+    ObjectCache(int maximumSize) {
+        objects = new StripedLru<>(maximumSize);
+    }
+
+    /**
+     * @param loader loads an object missing in the cache, returns null if not found
+     * @return the cached or loaded object, null if not found
+     */
+    MetObject get(long id, LongFunction<MetObject> loader) {
+        var object = objects.get(id, key -> {
+            var loaded = loader.apply(key);
+            return loaded == null ? NOT_FOUND : loaded;
+        });
+        return object == NOT_FOUND ? null : object;
+    }
+
+    /**
+     * Remove all cached objects, e.g. when an import has changed the stored objects.
+     */
+    void invalidateAll() {
+        objects.clear();
+    }
+
+    long size() {
+        return objects.size();
+    }
+
+    long hits() {
+        return objects.hits();
+    }
+
+    long misses() {
+        return objects.misses();
+    }
+
+    long evictions() {
+        return objects.evictions();
+    }
+}
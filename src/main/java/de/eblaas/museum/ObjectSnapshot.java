@@ -0,0 +1,254 @@
+package de.eblaas.museum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of the stored objects, restored at startup instead of importing an unchanged CSV file again.
+ * <p>
+ * The file starts with a header: magic, format version, flags, size and modification time of the source CSV file,
+ * import size limit and object count. The columns id, dimension hash, height, width, depth and weight follow as fixed width
+ * primitives, optionally followed by the raw dimension texts (hash, UTF-8 length and bytes). A CRC32C of all preceding
+ * bytes ends the file. Numbers are little endian, the file is read through a memory mapping and the columns are
+ * copied in bulk.
+ * </p>
+ * A snapshot is only restored for the source file and import size limit it was written for, see
+ * {@link #isSnapshotOf(long, long, long)}. The source file is identified by its size and modification time, it is not
+ * read to restore a snapshot.
+ */
+final class ObjectSnapshot {
+
+    private static final long MAGIC = 0x4e534d554553554dL; // "MUSEUMSN"
+    private static final int VERSION = 1;
+
+    /**
+     * Flag of a snapshot with raw dimension texts.
+     */
+    private static final int RAW_DIMENSIONS = 1;
+
+    private static final int HEADER_SIZE = 48;
+
+    private final long sourceSize, sourceModified, importSize;
+    private final boolean rawDimensions;
+
+    private int size;
+    private long[] ids, dimHashes;
+    private double[] height, width, depth, weight;
+
+    private int rawSize;
+    private long[] rawHashes;
+    private String[] raws;
+
+    /**
+     * @param sourceSize     size of the source CSV file
+     * @param sourceModified last modification time of the source CSV file in milliseconds
+     * @param importSize     import size limit, objects imported from the source
+     * @param rawDimensions  true if the snapshot has a section of raw dimension texts
+     */
+    ObjectSnapshot(long sourceSize, long sourceModified, long importSize, boolean rawDimensions, int expectedSize) {
+        this.rawDimensions = rawDimensions;
+        this.sourceSize = sourceSize;
+        this.sourceModified = sourceModified;
+        this.importSize = importSize;
+        int capacity = Math.max(expectedSize, 16);
+        ids = new long[capacity];
+        dimHashes = new long[capacity];
+        height = new double[capacity];
+        width = new double[capacity];
+        depth = new double[capacity];
+        weight = new double[capacity];
+        rawHashes = new long[16];
+        raws = new String[16];
+    }
+
+    void add(long id, long dimHash, double height, double width, double depth, double weight) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            dimHashes = Arrays.copyOf(dimHashes, capacity);
+            this.height = Arrays.copyOf(this.height, capacity);
+            this.width = Arrays.copyOf(this.width, capacity);
+            this.depth = Arrays.copyOf(this.depth, capacity);
+            this.weight = Arrays.copyOf(this.weight, capacity);
+        }
+        ids[size] = id;
+        dimHashes[size] = dimHash;
+        this.height[size] = height;
+        this.width[size] = width;
+        this.depth[size] = depth;
+        this.weight[size] = weight;
+        size++;
+    }
+
+    void addRaw(long hash, String raw) {
+        if (rawSize == raws.length) {
+            rawHashes = Arrays.copyOf(rawHashes, rawSize * 2);
+            raws = Arrays.copyOf(raws, rawSize * 2);
+        }
+        rawHashes[rawSize] = hash;
+        raws[rawSize++] = raw;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Pass the rows in id order.
+     */
+    void forEach(Row row) {
+        for (int i = 0; i < size; i++) {
+            row.accept(ids[i], dimHashes[i], height[i], width[i], depth[i], weight[i]);
+        }
+    }
+
+    interface Row {
+
+        void accept(long id, long dimHash, double height, double width, double depth, double weight);
+    }
+
+    int rawSize() {
+        return rawSize;
+    }
+
+    long rawHash(int index) {
+        return rawHashes[index];
+    }
+
+    String raw(int index) {
+        return raws[index];
+    }
+
+    boolean hasRawDimensions() {
+        return rawDimensions;
+    }
+
+    /**
+     * @return true if the snapshot was written for the source file and import size limit
+     */
+    boolean isSnapshotOf(long sourceSize, long sourceModified, long importSize) {
+        return this.sourceSize == sourceSize && this.sourceModified == sourceModified && this.importSize == importSize;
+    }
+
+    /**
+     * Write the snapshot to a temporary file and move it to the file, readers never see a partially written file.
+     */
+    void write(Path file) throws IOException {
+
+        var encoded = new byte[rawSize][];
+        long length = HEADER_SIZE + 48L * size + 8;
+        if (rawDimensions) {
+            length += 4;
+            for (int i = 0; i < rawSize; i++) {
+                encoded[i] = raws[i].getBytes(StandardCharsets.UTF_8);
+                length += 12 + encoded[i].length;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large, size=" + length);
+        }
+
+        var buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC)
+                .putInt(VERSION)
+                .putInt(rawDimensions ? RAW_DIMENSIONS : 0)
+                .putLong(sourceSize)
+                .putLong(sourceModified)
+                .putLong(importSize)
+                .putLong(size);
+        buffer.asLongBuffer().put(ids, 0, size);
+        buffer.position(buffer.position() + 8 * size);
+        buffer.asLongBuffer().put(dimHashes, 0, size);
+        buffer.position(buffer.position() + 8 * size);
+        for (double[] column : new double[][]{height, width, depth, weight}) {
+            buffer.asDoubleBuffer().put(column, 0, size);
+            buffer.position(buffer.position() + 8 * size);
+        }
+        if (rawDimensions) {
+            buffer.putInt(rawSize);
+            for (int i = 0; i < rawSize; i++) {
+                buffer.putLong(rawHashes[i]).putInt(encoded[i].length).put(encoded[i]);
+            }
+        }
+        var crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, buffer.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(Path)}.
+     *
+     * @throws IOException if the file can not be read, has another format version or is corrupted
+     */
+    static ObjectSnapshot read(Path file) throws IOException {
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE + 8 || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size, size=" + length);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+
+            var crc = new CRC32C();
+            crc.update(buffer.duplicate().limit((int) length - 8));
+            if (crc.getValue() != buffer.getLong((int) length - 8)) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            if (buffer.getLong() != MAGIC) {
+                throw new IOException("No snapshot file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version, version=" + version);
+            }
+            int flags = buffer.getInt();
+            long sourceSize = buffer.getLong(), sourceModified = buffer.getLong(), importSize = buffer.getLong();
+            long count = buffer.getLong();
+            if (count < 0 || HEADER_SIZE + 48 * count + 8 > length) {
+                throw new IOException("Invalid snapshot object count, count=" + count);
+            }
+
+            int size = (int) count;
+            var snapshot = new ObjectSnapshot(sourceSize, sourceModified, importSize, (flags & RAW_DIMENSIONS) != 0,
+                    size);
+            snapshot.size = size;
+            for (long[] column : new long[][]{snapshot.ids, snapshot.dimHashes}) {
+                buffer.asLongBuffer().get(column, 0, size);
+                buffer.position(buffer.position() + 8 * size);
+            }
+            for (double[] column : new double[][]{snapshot.height, snapshot.width, snapshot.depth, snapshot.weight}) {
+                buffer.asDoubleBuffer().get(column, 0, size);
+                buffer.position(buffer.position() + 8 * size);
+            }
+            if (snapshot.rawDimensions) {
+                for (int i = buffer.getInt(); i > 0; i--) {
+                    long hash = buffer.getLong();
+                    var bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    snapshot.addRaw(hash, new String(bytes, StandardCharsets.UTF_8));
+                }
+            }
+            return snapshot;
+        } catch (RuntimeException e) {
+            // buffer underflows and invalid lengths of a corrupted file passing the checksum
+            throw new IOException("Invalid snapshot file", e);
+        }
+    }
+}
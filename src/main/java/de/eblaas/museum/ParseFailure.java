@@ -0,0 +1,23 @@
+package de.eblaas.museum;
+
+/**
+ * Reasons of objects dropped for missing or unparsable dimensions.
+ */
+enum ParseFailure {
+    /**
+     * Empty dimension string.
+     */
+    BLANK,
+    /**
+     * Known text of missing dimensions like "Dimensions unavailable".
+     */
+    UNAVAILABLE,
+    /**
+     * No supported format found.
+     */
+    NO_MATCH,
+    /**
+     * Format found, but a value is no valid number.
+     */
+    INVALID_NUMBER
+}
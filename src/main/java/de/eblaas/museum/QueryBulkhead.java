@@ -0,0 +1,179 @@
+package de.eblaas.museum;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the queries of the API on a bounded pool of workers instead of the servlet threads, sized to the connection
+ * pool. Queries wait in a bounded queue for a free worker, queries beyond are rejected right away. A saturated
+ * database blocks the workers only, the servlet threads keep serving requests not querying it.
+ * <p>
+ * Identical queries are coalesced, a query with the key of a query in flight gets the result of the query in flight
+ * instead of querying again. A key has to identify the result, including the version of the stored objects.
+ * </p>
+ * <p>
+ * Streams run on the workers like queries, holding a worker and its connection till the client read everything.
+ * Fewer streams than workers run at once, the other workers stay free for queries.
+ * </p>
+ * Published metrics: museum.bulkhead.active, museum.bulkhead.queued, museum.bulkhead.streams,
+ * museum.bulkhead.rejected and museum.bulkhead.coalesced.
+ */
+@Component
+class QueryBulkhead {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Admitted queries running or waiting, one permit per worker and queue slot.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Streams admitted, running or waiting.
+     */
+    private final Semaphore streams;
+
+    private final Map<Object, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Counter rejected;
+    private final Counter coalesced;
+
+    /**
+     * @param concurrency number of workers
+     * @param queue       number of queries waiting for a worker
+     * @param maxStreams  number of streams admitted at once, at most concurrency - 1
+     */
+    QueryBulkhead(@Value("${query.concurrency:10}") int concurrency, @Value("${query.queue:100}") int queue,
+                  @Value("${query.streams:4}") int maxStreams, MeterRegistry registry) {
+        var threads = new AtomicInteger();
+        // the queue is bounded by the permits
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "query-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        permits = new Semaphore(concurrency + queue);
+        int streamPermits = Math.max(1, Math.min(maxStreams, concurrency - 1));
+        streams = new Semaphore(streamPermits);
+        Gauge.builder("museum.bulkhead.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Queries running on a worker")
+                .register(registry);
+        Gauge.builder("museum.bulkhead.queued", executor, e -> e.getQueue().size())
+                .description("Queries waiting for a worker")
+                .register(registry);
+        Gauge.builder("museum.bulkhead.streams", streams, s -> streamPermits - s.availablePermits())
+                .description("Streams running or waiting for a worker")
+                .register(registry);
+        rejected = Counter.builder("museum.bulkhead.rejected")
+                .description("Queries rejected for a full queue")
+                .register(registry);
+        coalesced = Counter.builder("museum.bulkhead.coalesced")
+                .description("Queries sharing the result of an identical query in flight")
+                .register(registry);
+    }
+
+    /**
+     * Run a query on a worker, or join the identical query in flight.
+     *
+     * @param key identifies the result of the query, null if the query is not coalesced
+     * @throws RejectedExecutionException if all workers are busy and the queue is full
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> submit(Object key, Supplier<T> query) {
+        if (key == null) {
+            return start(null, query);
+        }
+        var started = new boolean[1];
+        var future = inFlight.computeIfAbsent(key, k -> {
+            started[0] = true;
+            return start(k, query);
+        });
+        if (!started[0]) {
+            coalesced.increment();
+        }
+        return (CompletableFuture<T>) future;
+    }
+
+    /**
+     * Run a stream on a worker, streams are never coalesced.
+     *
+     * @throws RejectedExecutionException if the maximum number of streams is admitted, or all workers are busy and
+     *                                    the queue is full
+     */
+    CompletableFuture<Void> stream(Runnable stream) {
+        if (!streams.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Too many streams");
+        }
+        try {
+            return start(null, () -> {
+                try {
+                    stream.run();
+                    return null;
+                } finally {
+                    streams.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            streams.release();
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> start(Object key, Supplier<T> query) {
+        acquire();
+        var future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                T result = null;
+                Throwable failure = null;
+                try {
+                    result = query.get();
+                } catch (Throwable e) {
+                    failure = e;
+                }
+                // released before completing, the callers find the query finished
+                permits.release();
+                if (key != null) {
+                    inFlight.remove(key, future);
+                }
+                if (failure == null) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return future;
+    }
+
+    private void acquire() {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Query queue full");
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,63 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Latency timers museum.query{query, limited} of the service queries, tagged by the dimensions limited by the
+ * boundaries, e.g. limited="height+width". Timers are registered on first use, at most 16 per query.
+ */
+@Component
+@RequiredArgsConstructor
+class QueryMetrics {
+
+    private static final String[] DIMENSIONS = {"height", "width", "depth", "weight"};
+
+    private final MeterRegistry registry;
+
+    private final Timer[] findById = new Timer[1 << DIMENSIONS.length];
+    private final Timer[] listFitting = new Timer[1 << DIMENSIONS.length];
+    private final Timer[] nearest = new Timer[1 << DIMENSIONS.length];
+
+    Timer findById(DimensionBoundary boundary) {
+        return timer(findById, "findById", boundary);
+    }
+
+    Timer listFitting(DimensionBoundary boundary) {
+        return timer(listFitting, "listFittingObjects", boundary);
+    }
+
+    Timer nearest(DimensionBoundary boundary) {
+        return timer(nearest, "nearest", boundary);
+    }
+
+    private Timer timer(Timer[] timers, String query, DimensionBoundary boundary) {
+        int limited = boundary.limitedDimensions();
+        var timer = timers[limited];
+        if (timer == null) {
+            // racing threads get the same timer from the registry
+            timer = timers[limited] = Timer.builder("museum.query")
+                    .description("Latency of object queries")
+                    .tag("query", query)
+                    .tag("limited", limited(limited))
+                    .register(registry);
+        }
+        return timer;
+    }
+
+    private static String limited(int dimensions) {
+        if (dimensions == 0) {
+            return "none";
+        }
+        var tag = new StringBuilder();
+        for (int i = 0; i < DIMENSIONS.length; i++) {
+            if ((dimensions & 1 << i) != 0) {
+                tag.append(tag.length() > 0 ? "+" : "").append(DIMENSIONS[i]);
+            }
+        }
+        return tag.toString();
+    }
+}
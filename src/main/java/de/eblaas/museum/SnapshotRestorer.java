@@ -0,0 +1,84 @@
+package de.eblaas.museum;
+
+import de.eblaas.museum.ImportCoordinator.Source;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the in-memory engine from the snapshot of the import file at startup, ahead of the import and without the
+ * import lease, see {@link ObjectSnapshot}. The snapshot is only restored for the import file and import size it was
+ * written for, the import file is not read. The import stores the restored snapshot in the database instead of
+ * importing the file, see {@link FileImportDatasource}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@Profile("import")
+class SnapshotRestorer {
+
+    private final Resource resource;
+    private final MetObjectService service;
+
+    @Value("${import.size}")
+    private long importSize;
+
+    /**
+     * Snapshot file of the imported objects, empty if no snapshot is used.
+     */
+    @Value("${import.snapshot:}")
+    private String snapshotPath;
+
+    /**
+     * Snapshot restored at startup till taken by the import, null if none.
+     */
+    private ObjectSnapshot restored;
+
+    @PostConstruct
+    void restore() {
+        if (snapshotPath.isEmpty() || !resource.exists()) {
+            return;
+        }
+        var path = Path.of(snapshotPath);
+        try {
+            if (!Files.exists(path)) {
+                log.info("No snapshot found, import file. path={}", path);
+                return;
+            }
+            long begin = System.nanoTime();
+            var source = Source.of(resource.getFile().toPath(), importSize);
+            var snapshot = ObjectSnapshot.read(path);
+            if (!snapshot.isSnapshotOf(source.size, source.modified, source.importSize)) {
+                log.info("Snapshot of another import file or size, import file. path={}", path);
+                return;
+            }
+            service.restore(snapshot);
+            restored = snapshot;
+            log.info("Restored snapshot. path={} size={} duration={}ms", path, snapshot.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        } catch (IOException e) {
+            log.warn("Reading snapshot failed, import file. path={}", path, e);
+        }
+    }
+
+    /**
+     * Take the snapshot restored at startup, it is kept till taken by the import.
+     *
+     * @return the restored snapshot if it was written for the source, else null
+     */
+    synchronized ObjectSnapshot take(Source source) {
+        var snapshot = restored;
+        restored = null;
+        return snapshot != null && snapshot.isSnapshotOf(source.size, source.modified, source.importSize)
+                ? snapshot : null;
+    }
+}
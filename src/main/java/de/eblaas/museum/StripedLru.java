@@ -0,0 +1,134 @@
+package de.eblaas.museum;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded map evicting the least recently used entries, shared by the caches of objects, dimension texts and parse
+ * results.
+ * <p>
+ * The map is split into stripes selected by the hash of the key, each stripe is a small LRU map guarded by its own
+ * lock. Values are loaded outside of the locks, concurrent misses of the same key may load it twice. A load racing
+ * with {@link #clear()} is not cached.
+ * </p>
+ */
+class StripedLru<K, V> {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    StripedLru(int maximumSize) {
+        int stripeSize = Math.max(1, maximumSize / STRIPES);
+        stripes = new StripedLru.Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * @return the cached value, null if not cached
+     */
+    V get(K key) {
+        var stripe = stripe(key);
+        V value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    /**
+     * @param loader loads a value missing in the map, a null value is not cached
+     * @return the cached or loaded value
+     */
+    V get(K key, Function<? super K, ? extends V> loader) {
+        var value = get(key);
+        if (value != null) {
+            return value;
+        }
+        var stripe = stripe(key);
+        long loadedGeneration = generation.get();
+        value = loader.apply(key);
+        if (value != null) {
+            synchronized (stripe) {
+                if (generation.get() == loadedGeneration) {
+                    stripe.put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    void put(K key, V value) {
+        var stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    /**
+     * Remove all entries, loads in progress are not cached.
+     */
+    void clear() {
+        generation.incrementAndGet();
+        for (var stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (var stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    private Stripe stripe(K key) {
+        // spread the hash, ids and similar keys differ in the low bits only
+        return stripes[(key.hashCode() * 0x9E3779B9) >>> 28];
+    }
+
+    private class Stripe extends LinkedHashMap<K, V> {
+
+        private final int maximumSize;
+
+        Stripe(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maximumSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
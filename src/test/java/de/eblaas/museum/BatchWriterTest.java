@@ -0,0 +1,92 @@
+package de.eblaas.museum;
+
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchWriterTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        jdbcTemplate.execute("create table ids(id BIGINT PRIMARY KEY)");
+    }
+
+    @Test
+    void testWritesEachObjectOnce() {
+
+        var written = new ConcurrentLinkedQueue<Long>();
+        var writer = new BatchWriter(4, 0, Duration.ofMillis(100), transactionTemplate,
+                batch -> batch.forEach(obj -> written.add(obj.getId())));
+
+        for (long id = 0; id < 25_000; id++) {
+            writer.add(MetObject.builder().id(id).build());
+        }
+        writer.finish();
+
+        assertThat(written).hasSize(25_000).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void testBatchSizeFollowsLatency() {
+
+        // 0.1 ms per object, batches written in 20 ms hold 200 objects
+        var writer = new BatchWriter(1, 0, Duration.ofMillis(20), transactionTemplate,
+                batch -> sleep(batch.size() / 10));
+
+        for (long id = 0; id < 10_000; id++) {
+            writer.add(MetObject.builder().id(id).build());
+        }
+        writer.finish();
+
+        assertThat(writer.batchSize()).isBetween(BatchWriter.MIN_BATCH_SIZE, 300);
+    }
+
+    @Test
+    void testFailedTransactionIsRolledBack() {
+
+        var sizes = new ConcurrentLinkedQueue<Integer>();
+        var writer = new BatchWriter(1, 3, Duration.ofMillis(100), transactionTemplate, batch -> {
+            if (sizes.size() == 4) {
+                throw new IllegalStateException("write failed");
+            }
+            sizes.add(batch.size());
+            jdbcTemplate.batchUpdate("insert into ids values(?)", batch, batch.size(),
+                    (ps, obj) -> ps.setLong(1, obj.getId()));
+        });
+
+        assertThatThrownBy(() -> {
+            for (long id = 0; id < 1_000_000; id++) {
+                writer.add(MetObject.builder().id(id).build());
+            }
+            writer.finish();
+        }).hasMessage("write failed");
+        // the first transaction of 3 batches is committed, the second one is rolled back
+        assertThat(jdbcTemplate.queryForObject("select count(*) from ids", Integer.class))
+                .isEqualTo(sizes.stream().limit(3).mapToInt(Integer::intValue).sum());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
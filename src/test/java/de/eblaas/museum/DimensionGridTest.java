@@ -0,0 +1,180 @@
+package de.eblaas.museum;
+
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import de.eblaas.museum.Dimension.DimensionStats;
+import de.eblaas.museum.Dimension.DistanceMetric;
+import de.eblaas.museum.Dimension.HistogramBin;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DimensionGridTest {
+
+    private static final int SIZE = 100_000;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testMatchesDoesItFit() {
+
+        var dimensions = dimensions();
+        var grid = grid(dimensions);
+
+        var all = grid.stats(new DimensionBoundary());
+        assertThat(all.getCount()).isEqualTo(SIZE);
+        assertThat(all.getHeight().get(0).getMin()).isEqualTo(-1);
+        assertThat(all.getHeight().stream().mapToLong(HistogramBin::getCount).sum()).isEqualTo(SIZE);
+
+        for (int query = 0; query < 500; query++) {
+            var boundary = boundary();
+            var fitting = new ArrayList<Dimension>();
+            for (Dimension dimension : dimensions) {
+                if (dimension.doesItFit(boundary)) {
+                    fitting.add(dimension);
+                }
+            }
+
+            var stats = grid.stats(boundary);
+
+            assertThat(stats.getCount()).as(boundary.toString()).isEqualTo(fitting.size());
+            assertHistogram(stats.getHeight(), fitting, Dimension::getHeight);
+            assertHistogram(stats.getWidth(), fitting, Dimension::getWidth);
+            assertHistogram(stats.getDepth(), fitting, Dimension::getDepth);
+            assertHistogram(stats.getWeight(), fitting, Dimension::getWeight);
+        }
+    }
+
+    @Test
+    void testNearestMatchesSortedFitting() {
+
+        var dimensions = dimensions();
+        var grid = grid(dimensions);
+
+        for (int query = 0; query < 200; query++) {
+            var boundary = boundary();
+            var target = new Dimension(target(200), target(200), target(200), target(2000));
+            var metric = DistanceMetric.values()[query % 2];
+            int k = 1 + random.nextInt(300);
+
+            var expected = new ArrayList<Integer>();
+            for (int i = 0; i < SIZE; i++) {
+                if (dimensions.get(i).doesItFit(boundary)) {
+                    expected.add(i);
+                }
+            }
+            // ranked by the sum of the metric, different sums may have the same square root
+            Comparator<Integer> byDistance = Comparator.comparingDouble(i -> sum(dimensions.get(i), target, metric));
+            expected.sort(byDistance.thenComparing(i -> i));
+
+            var nearest = grid.nearest(boundary, target, metric, k);
+
+            assertThat(nearest.size()).isEqualTo(Math.min(k, expected.size()));
+            for (int i = 0; i < nearest.size(); i++) {
+                assertThat(nearest.id(i)).as(boundary + " " + target + " " + i).isEqualTo((long) expected.get(i));
+                assertThat(nearest.distance(i))
+                        .isEqualTo(metric.distance(sum(dimensions.get(expected.get(i)), target, metric)));
+            }
+        }
+    }
+
+    @Test
+    void testEmptyGrid() {
+
+        var grid = new DimensionGrid(0);
+        grid.build();
+
+        DimensionStats stats = grid.stats(new DimensionBoundary());
+
+        assertThat(stats.getCount()).isZero();
+        assertThat(stats.getHeight()).isEmpty();
+    }
+
+    private static void assertHistogram(List<HistogramBin> histogram, List<Dimension> fitting,
+                                        ToDoubleFunction<Dimension> dimension) {
+        for (HistogramBin bin : histogram) {
+            assertThat(bin.getMin()).isLessThanOrEqualTo(bin.getMax());
+            long expected = fitting.stream()
+                    .mapToDouble(dimension)
+                    .filter(value -> value >= bin.getMin() && value <= bin.getMax())
+                    .count();
+            assertThat(bin.getCount()).as(bin.toString()).isEqualTo(expected);
+        }
+    }
+
+    private List<Dimension> dimensions() {
+        var dimensions = new ArrayList<Dimension>();
+        for (int i = 0; i < SIZE; i++) {
+            // height and width correlated like the MET objects, values repeat
+            double height = value(1);
+            dimensions.add(new Dimension(height, height < 0 ? value(1) : height * (0.5 + random.nextInt(10) / 10.0),
+                    value(1), value(10)));
+        }
+        return dimensions;
+    }
+
+    /**
+     * Grid of the dimensions, the index is the id.
+     */
+    private static DimensionGrid grid(List<Dimension> dimensions) {
+        var grid = new DimensionGrid(16);
+        for (int i = 0; i < dimensions.size(); i++) {
+            var d = dimensions.get(i);
+            grid.add(i, d.getHeight(), d.getWidth(), d.getDepth(), d.getWeight());
+        }
+        grid.build();
+        return grid;
+    }
+
+    private static double sum(Dimension dimension, Dimension target, DistanceMetric metric) {
+        double[] values = {dimension.getHeight(), dimension.getWidth(), dimension.getDepth(), dimension.getWeight()};
+        double[] targets = {target.getHeight(), target.getWidth(), target.getDepth(), target.getWeight()};
+        double sum = 0;
+        for (int d = 0; d < values.length; d++) {
+            if (targets[d] >= 0) {
+                sum += metric.term(values[d] < 0 ? targets[d] : Math.abs(values[d] - targets[d]), targets[d]);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * A target dimension value up to range, not compared in about one of three cases.
+     */
+    private double target(int range) {
+        return random.nextInt(3) == 0 ? -1 : 1 + random.nextInt(range * 10) / 10.0;
+    }
+
+    /**
+     * A dimension value up to 200 * scale, missing in about one of four cases.
+     */
+    private double value(int scale) {
+        return random.nextInt(4) == 0 ? -1 : random.nextInt(2000) * scale / 10.0;
+    }
+
+    /**
+     * Boundaries with a random subset of the eight boundaries set.
+     */
+    private DimensionBoundary boundary() {
+        var boundary = new DimensionBoundary();
+        boundary.setMinHeight(bound(boundary.getMinHeight(), 200));
+        boundary.setMaxHeight(bound(boundary.getMaxHeight(), 200));
+        boundary.setMinWidth(bound(boundary.getMinWidth(), 200));
+        boundary.setMaxWidth(bound(boundary.getMaxWidth(), 200));
+        boundary.setMinDepth(bound(boundary.getMinDepth(), 200));
+        boundary.setMaxDepth(bound(boundary.getMaxDepth(), 200));
+        boundary.setMinWeight(bound(boundary.getMinWeight(), 2000));
+        boundary.setMaxWeight(bound(boundary.getMaxWeight(), 2000));
+        return boundary;
+    }
+
+    private Double bound(Double unbounded, int range) {
+        return random.nextBoolean() ? unbounded : random.nextInt(range * 2) / 2.0;
+    }
+}
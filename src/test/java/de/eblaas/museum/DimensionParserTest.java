@@ -0,0 +1,192 @@
+package de.eblaas.museum;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DimensionParserTest {
+
+    private static final int CORPUS_SIZE = 100_000;
+
+    private static final String[] LABELS = {"", "", "", "Overall: ", "Image: ", "Sheet: ", "Frame: ", "H. ", "Diam. ",
+            "a) ", "(a) ", "Overall (without base): "};
+    private static final String[] IMPERIAL = {"", "", "11 3/16 in. ", "23 1/4 x 18 1/4 in. ",
+            "46 1/4 x 24 7/8 x 17 5/8 in. ", "11/16 in. ", "H. 12 in.; "};
+    private static final String[] SEPARATORS = {" x ", " x ", " x ", " × ", " X ", "  x ", " x. ", " cm x ", "x", " x  "};
+    private static final String[] UNITS = {" cm", " cm", " cm", "cm", " in.", " mm", " com", " cm.", "  cm", " cm Diam.",
+            " cm H.", " in", " inch"};
+    private static final String[] WEIGHT_UNITS = {"kg", "g", "dwt", "oz", "lb.", "kg."};
+    private static final String[] ITEM_SEPARATORS = {"; ", ";", "\r\n", "\n", " | ", ";\r\n"};
+    private static final String[] UNPARSABLE = {"Dimensions unavailable", "Dimension unavailable", "irregular",
+            "(irregular)", "H. 3 in.", "", " ", "()", "(cm)", "(. cm)", "(1.2.3.4 cm)", "(12 x 1.2.3 cm, 1..2 kg)"};
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testMatchesRegexImplementationOnCorpus() {
+
+        var mismatches = new ArrayList<String>();
+        for (String raw : corpus()) {
+            var expected = RegexDimensionParser.fromString(raw);
+            var actual = Dimension.fromString(raw);
+            if (!isEqual(expected, actual)) {
+                mismatches.add(raw.replace("\n", "\\n").replace("\r", "\\r") + " => " + expected + " != " + actual);
+            }
+        }
+
+        assertThat(mismatches).isEmpty();
+    }
+
+    @Test
+    void testMatchesRegexImplementationOnDimensionTestCases() {
+
+        for (String raw : List.of(
+                "Diam. 11/16 in. (1.7 cm)",
+                "23 1/4 x 18 1/4 in. (59.1 x 46.4 cm)",
+                "46 1/4 x 24 7/8 x 17 5/8 in. (117.5 x 63.2 x 44.8 cm)",
+                "11 3/16 x 14 7/16 x 11 3/8 in. (28.4 x 36.7 x 28.9 cm); 41 oz. 5 dwt. (1282.7 g)",
+                "11 3/16 x 14 7/16 x 11 3/8 in. (28.4 x 36.7 x 28.9 mm, 5.1 kg)")) {
+            assertThat(isEqual(RegexDimensionParser.fromString(raw), Dimension.fromString(raw))).as(raw).isTrue();
+        }
+    }
+
+    @Test
+    void testRangesMissingUnitsAndSeparateValues() {
+
+        assertThat(Dimension.fromString("(12.1-25.4 cm)").getHeight()).isEqualTo(25.4D);
+        assertThat(Dimension.fromString("(12.1–25.4 x 3 cm)").getHeight()).isEqualTo(25.4D);
+        assertThat(Dimension.fromString("(12.1)").getWidth()).isEqualTo(12.1D);
+        assertThat(Dimension.fromString("(12.456.3 cm)").getWidth()).isEqualTo(56.3D);
+        assertThat(Dimension.fromString("(12. 3 cm)").getHeight()).isEqualTo(12.3D);
+        assertThat(Dimension.fromString("(10 in.)").getHeight()).isEqualTo(25.4D);
+        assertThat(Dimension.fromString("(1 x 2 cm, 2 oz)").getWeight()).isEqualTo(56.7D);
+        assertThat(Dimension.fromString("(1 x 2 cm, 10 dwt)").getWeight()).isCloseTo(15.55D, within(1e-9));
+    }
+
+    @Test
+    void testMultipleItemsAreCombined() {
+
+        var dimension = Dimension.fromString("Frame: (10 x 40 cm)\r\nSheet: (20 x 30 x 5 cm); (3 kg)|(2 kg)");
+
+        assertThat(dimension).isNotNull();
+        assertThat(dimension.getHeight()).isEqualTo(20D);
+        assertThat(dimension.getWidth()).isEqualTo(40D);
+        assertThat(dimension.getDepth()).isEqualTo(5D);
+        assertThat(dimension.getWeight()).isEqualTo(3D);
+    }
+
+    @Test
+    void testUnparsable() {
+
+        for (String raw : UNPARSABLE) {
+            assertThat(Dimension.fromString(raw)).as(raw).isNull();
+        }
+    }
+
+    private List<String> corpus() {
+        var corpus = new ArrayList<String>(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            int items = random.nextInt(10) < 7 ? 1 : 2 + random.nextInt(3);
+            var raw = new StringBuilder();
+            for (int item = 0; item < items; item++) {
+                if (item > 0) {
+                    raw.append(pick(ITEM_SEPARATORS));
+                }
+                raw.append(item());
+            }
+            corpus.add(raw.toString());
+        }
+        return corpus;
+    }
+
+    private String item() {
+        switch (random.nextInt(12)) {
+            case 0:
+                return pick(UNPARSABLE);
+            case 1:
+                // weight only
+                return pick(LABELS) + "41 oz. 5 dwt. (" + value() + (random.nextBoolean() ? " g)" : "g)");
+            case 2:
+                // value range
+                return pick(LABELS) + pick(IMPERIAL) + "(" + value() + (random.nextBoolean() ? "-" : "–") + value()
+                        + (random.nextBoolean() ? ")" : pick(UNITS) + ")");
+            case 3:
+                // missing unit, glued values and spaces in values
+                return pick(LABELS) + "(" + oneOf(
+                        () -> value(),
+                        () -> random.nextInt(100) + "." + random.nextInt(10) + random.nextInt(100) + "." + random.nextInt(10),
+                        () -> random.nextInt(100) + ". " + random.nextInt(100),
+                        () -> random.nextInt(100) + "." + random.nextInt(10) + "." + random.nextInt(10))
+                        + (random.nextBoolean() ? ")" : pick(UNITS) + ")");
+            case 4:
+                // format errors around brackets
+                return pick(LABELS) + oneOf(() -> "( ", () -> "(  ", () -> "(") + dimensions()
+                        + oneOf(() -> ")", () -> "))", () -> ")))", () -> ").", () -> ") approx.");
+            default:
+                return pick(LABELS) + pick(IMPERIAL) + "(" + dimensions() + ")";
+        }
+    }
+
+    private String dimensions() {
+        var dimensions = new StringBuilder(value());
+        int count = random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            dimensions.append(pick(SEPARATORS)).append(value());
+        }
+        dimensions.append(pick(UNITS));
+        if (random.nextInt(4) == 0) {
+            dimensions.append(oneOf(() -> ", ", () -> ",", () -> "; ")).append(value())
+                    .append(oneOf(() -> " ", () -> "", () -> "  ")).append(pick(WEIGHT_UNITS));
+        }
+        return dimensions.toString();
+    }
+
+    private String value() {
+        switch (random.nextInt(10)) {
+            case 0:
+                return String.valueOf(random.nextInt(10_000));
+            case 1:
+                return random.nextInt(100) + ".";
+            case 2:
+                return "." + random.nextInt(100);
+            case 3:
+                return random.nextInt(100) + "." + random.nextInt(100) + "." + random.nextInt(10);
+            default:
+                return random.nextInt(1000) + "." + random.nextInt(10);
+        }
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    @SafeVarargs
+    private String oneOf(Supplier<String>... values) {
+        return values[random.nextInt(values.length)].get();
+    }
+
+    /**
+     * Compare dimensions, mm are converted by a decimal shift instead of a multiplication by 0.1 and may differ in
+     * the last digit.
+     */
+    private static boolean isEqual(Dimension expected, Dimension actual) {
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        return isEqual(expected.getHeight(), actual.getHeight())
+                && isEqual(expected.getWidth(), actual.getWidth())
+                && isEqual(expected.getDepth(), actual.getDepth())
+                && isEqual(expected.getWeight(), actual.getWeight());
+    }
+
+    private static boolean isEqual(double expected, double actual) {
+        return Math.abs(expected - actual) <= Math.abs(expected) * 1e-12;
+    }
+}
@@ -66,4 +66,21 @@ class DimensionTest {
         assertThat(dimension.getDepth()).isEqualTo(2.89D);
         assertThat(dimension.getWeight()).isEqualTo(5100D);
     }
+
+    @Test
+    void testInvalidNumberIsReported() {
+
+        assertThat(Dimension.fromString("(12 x 1.2.3 cm)")).isNull();
+        var invalid = Dimension.parse("(12 x 1.2.3 cm)");
+        assertThat(invalid).isSameAs(DimensionParser.INVALID_NUMBER);
+        assertThat(DimensionParser.failure(invalid)).isEqualTo(ParseFailure.INVALID_NUMBER);
+
+        var noMatch = Dimension.parse("irregular");
+        assertThat(noMatch).isSameAs(DimensionParser.NO_MATCH);
+        assertThat(DimensionParser.failure(noMatch)).isEqualTo(ParseFailure.NO_MATCH);
+
+        var parsed = Dimension.parse("(12 x 1.2 cm)");
+        assertThat(parsed.getWidth()).isEqualTo(1.2);
+        assertThat(DimensionParser.failure(parsed)).isNull();
+    }
 }
@@ -0,0 +1,172 @@
+package de.eblaas.museum;
+
+
+import de.eblaas.museum.FileImportDatasource.ImportMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class FileImportDatasourceTest {
+
+    private static final String HEADER = "Object Number,Is Highlight,Object ID,Title,Dimensions,Credit Line\r\n";
+
+    @TempDir
+    Path tempDir;
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private MetObjectService service;
+    private ImportCoordinator coordinator;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        registry = new SimpleMeterRegistry();
+        service = new MetObjectService(jdbcTemplate, transactionTemplate, new QueryMetrics(registry));
+        coordinator = new ImportCoordinator(jdbcTemplate, transactionTemplate, "test", 60_000);
+    }
+
+    @Test
+    void testParallelImportOfLimitedSizeKeepsFileOrder() throws IOException {
+
+        // each block of 10 rows: blank, unavailable, unparsable and 7 parsable dimensions
+        var csv = new StringBuilder(HEADER);
+        var parsable = new ArrayList<Long>();
+        for (long id = 0; id < 10_000; id++) {
+            String dimension;
+            switch ((int) (id % 10)) {
+                case 0:
+                    dimension = "";
+                    break;
+                case 1:
+                    dimension = "Dimensions unavailable";
+                    break;
+                case 2:
+                    dimension = "Various sizes";
+                    break;
+                default:
+                    dimension = "(" + (id % 50 + 1) + " x 20 cm)";
+                    parsable.add(id);
+            }
+            csv.append("1.").append(id).append(",False,").append(id).append(",Title,\"").append(dimension)
+                    .append("\",Gift\r\n");
+        }
+        var file = Files.writeString(tempDir.resolve("MetObjects.csv"), csv, StandardCharsets.UTF_8);
+
+        importFile(file, 4, 3500);
+
+        // the first 3500 parsable objects are in the first 5000 rows
+        assertThat(jdbcTemplate.queryForList("select id from met_objects order by id", Long.class))
+                .isEqualTo(parsable.subList(0, 3500));
+        assertThat(rows("read")).isEqualTo(5000);
+        assertThat(rows("filtered")).isEqualTo(4000);
+        assertThat(rows("parsed")).isEqualTo(3500);
+        assertThat(rows("inserted")).isEqualTo(3500);
+        assertThat(failures("blank")).isEqualTo(500);
+        assertThat(failures("unavailable")).isEqualTo(500);
+        assertThat(failures("no_match")).isEqualTo(500);
+    }
+
+    @Test
+    void testImportedFileIsReloadedNotImportedAgain() throws IOException {
+
+        var file = Files.writeString(tempDir.resolve("MetObjects.csv"),
+                HEADER + "1.1,False,1,Title,\"(5 x 20 cm)\",Gift\r\n", StandardCharsets.UTF_8);
+        importFile(file, 1, -1);
+        long completed = coordinator.completed();
+        // a table dropped by another import loses its comment
+        jdbcTemplate.execute("comment on table met_objects is 'kept'");
+
+        importFile(file, 1, -1);
+
+        assertThat(coordinator.completed()).isEqualTo(completed);
+        assertThat(rows("read")).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("select remarks from information_schema.tables "
+                + "where lower(table_name) = 'met_objects'", String.class)).isEqualTo("kept");
+        await().atMost(1, TimeUnit.MINUTES).until(() -> service.version() != null);
+    }
+
+    @Test
+    void testRestoresSnapshotAtStartupInsteadOfImporting() throws IOException {
+
+        var file = Files.writeString(tempDir.resolve("MetObjects.csv"), HEADER
+                + "1.1,False,1,Title,\"(5 x 20 cm)\",Gift\r\n"
+                + "1.2,False,2,Title,\"(7 x 20 cm)\",Gift\r\n", StandardCharsets.UTF_8);
+        var snapshot = tempDir.resolve("objects.snapshot").toString();
+        importFile(file, 1, -1, snapshot);
+        var version = service.version();
+
+        // another instance starting on an empty database
+        setUp();
+        restorer(file, -1, snapshot).restore();
+        assertThat(service.version()).isEqualTo(version);
+
+        importFile(file, 1, -1, snapshot);
+
+        assertThat(rows("read")).isZero();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class)).isEqualTo(2);
+        assertThat(service.version()).isEqualTo(version);
+    }
+
+    private void importFile(Path file, int parallelism, long importSize) {
+        importFile(file, parallelism, importSize, "");
+    }
+
+    /**
+     * Restore the snapshot and import the file like an application starting.
+     */
+    private void importFile(Path file, int parallelism, long importSize, String snapshotPath) {
+        var restorer = restorer(file, importSize, snapshotPath);
+        restorer.restore();
+        var datasource = new FileImportDatasource(new FileSystemResource(file), service, coordinator,
+                new ImportWatcher(jdbcTemplate, service, Duration.ofSeconds(10)), restorer, transactionTemplate,
+                registry);
+        ReflectionTestUtils.setField(datasource, "importSize", importSize);
+        ReflectionTestUtils.setField(datasource, "parallelism", parallelism);
+        ReflectionTestUtils.setField(datasource, "partitions", 1);
+        ReflectionTestUtils.setField(datasource, "writers", 1);
+        ReflectionTestUtils.setField(datasource, "batchLatency", Duration.ofMillis(100));
+        ReflectionTestUtils.setField(datasource, "mode", ImportMode.RELOAD);
+        ReflectionTestUtils.setField(datasource, "snapshotPath", snapshotPath);
+        datasource.importDate();
+
+        await().atMost(1, TimeUnit.MINUTES).until(() -> coordinator.completed() != 0);
+    }
+
+    private SnapshotRestorer restorer(Path file, long importSize, String snapshotPath) {
+        var restorer = new SnapshotRestorer(new FileSystemResource(file), service);
+        ReflectionTestUtils.setField(restorer, "importSize", importSize);
+        ReflectionTestUtils.setField(restorer, "snapshotPath", snapshotPath);
+        return restorer;
+    }
+
+    private double rows(String stage) {
+        return registry.counter("museum.import.rows", "stage", stage).count();
+    }
+
+    private double failures(String reason) {
+        return registry.counter("museum.import.parse.failures", "reason", reason).count();
+    }
+}
@@ -0,0 +1,161 @@
+package de.eblaas.museum;
+
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImportCoordinatorTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @Test
+    void testOneInstanceLeads() {
+
+        var first = coordinator("first", 60_000);
+        var second = coordinator("second", 60_000);
+        long completed = second.completed();
+
+        assertThat(first.acquire()).isTrue();
+        assertThat(second.acquire()).isFalse();
+        assertThat(second.leader()).isEqualTo("first");
+
+        var source = new ImportCoordinator.Source(100, 42, -1);
+        assertThat(first.release(source)).isEqualTo(first.completed());
+
+        assertThat(second.leader()).isNull();
+        assertThat(second.completed()).isNotEqualTo(completed);
+        assertThat(second.completedSource()).isEqualTo(source);
+        assertThat(second.acquire()).isTrue();
+    }
+
+    @Test
+    void testCompletedSourceIsKeptTillNextImportStarts() {
+
+        var first = coordinator("first", 60_000);
+        assertThat(first.completedSource()).isNull();
+        var source = new ImportCoordinator.Source(100, 42, -1);
+        first.acquire();
+        long completed = first.release(source);
+
+        first.acquire();
+        assertThat(first.release(null)).isZero();
+
+        assertThat(first.completed()).isEqualTo(completed);
+        assertThat(first.completedSource()).isEqualTo(source);
+
+        // the failed import changed the stored objects
+        first.acquire();
+        first.importStarted();
+        assertThat(first.release(null)).isZero();
+
+        assertThat(first.completed()).isEqualTo(completed);
+        assertThat(first.completedSource()).isNull();
+    }
+
+    @Test
+    void testWatcherReloadsFinishedImport() {
+
+        var service = new MetObjectService(jdbcTemplate, transactionTemplate,
+                new QueryMetrics(new SimpleMeterRegistry()));
+        var watcher = new ImportWatcher(jdbcTemplate, service, Duration.ofSeconds(10));
+        // no lease table, no import finished yet
+        watcher.poll();
+        assertThat(service.version()).isNull();
+
+        service.initDb();
+        var leader = coordinator("leader", 60_000);
+        leader.acquire();
+        leader.release(new ImportCoordinator.Source(100, 42, -1));
+        watcher.poll();
+
+        assertThat(service.version()).isNotNull();
+    }
+
+    @Test
+    void testExpiredLeaseIsTakenOver() {
+
+        var failed = coordinator("failed", -1);
+        var second = coordinator("second", 60_000);
+
+        assertThat(failed.acquire()).isTrue();
+        assertThat(second.leader()).isNull();
+        assertThat(second.acquire()).isTrue();
+        assertThat(failed.acquire()).isFalse();
+    }
+
+    @Test
+    void testPartitionsStagedOnce() {
+
+        var service = new MetObjectService(jdbcTemplate, transactionTemplate,
+                new QueryMetrics(new SimpleMeterRegistry()));
+        service.initDb();
+        service.initStaging();
+        // claims of the stalled instance expire right away
+        var stalled = coordinator("stalled", -1);
+        var second = coordinator("second", 60_000);
+        stalled.createPartitions(100, new long[]{0, 10, 20});
+        // partitions of another import file
+        assertThat(second.claim(200)).isNull();
+
+        var stalledPartition = stalled.claim(100);
+        var reclaimed = second.claim(100);
+        var partition = second.claim(100);
+
+        assertThat(stalledPartition.id).isEqualTo(0);
+        assertThat(reclaimed.id).isEqualTo(0);
+        assertThat(partition.id).isEqualTo(1);
+        assertThat(second.claim(100)).isNull();
+
+        // partitions share raw dimension texts
+        assertThatThrownBy(() -> stalled.stage(stalledPartition,
+                () -> service.stagePartition(objects(0, 100), new HashSet<>())))
+                .isInstanceOf(IllegalStateException.class);
+        second.stage(partition, () -> service.stagePartition(objects(100, 200), new HashSet<>()));
+        assertThat(second.unfinishedPartitions()).isEqualTo(1);
+        second.stage(reclaimed, () -> service.stagePartition(objects(0, 100), new HashSet<>()));
+        assertThat(second.unfinishedPartitions()).isZero();
+        service.swapStaging();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class)).isEqualTo(200);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_dimensions", Integer.class)).isEqualTo(10);
+    }
+
+    private ImportCoordinator coordinator(String owner, long leaseMillis) {
+        var coordinator = new ImportCoordinator(jdbcTemplate, transactionTemplate, owner, leaseMillis);
+        coordinator.initTables();
+        return coordinator;
+    }
+
+    /**
+     * Objects with ids from first to last (exclusive), ten distinct raw dimension texts.
+     */
+    private static List<MetObject> objects(long first, long last) {
+        return LongStream.range(first, last)
+                .mapToObj(id -> MetObject.builder().id(id).dimensionRaw("(" + id % 10 + " cm)")
+                        .dimension(new Dimension(id % 10, id % 10, -1, -1)).build())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,33 @@
+package de.eblaas.museum;
+
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImportedObjectsTest {
+
+    @Test
+    void testUnchangedAndUnseenObjects() {
+
+        var imported = new ImportedObjects(2);
+        imported.add(1, object(1, "(10 cm)").dimensionHash());
+        imported.add(2, object(2, "(20 cm)").dimensionHash());
+        imported.add(5, object(5, "(50 cm)").dimensionHash());
+
+        assertThat(imported.isUnchanged(object(1, "(10 cm)"))).isTrue();
+        assertThat(imported.isUnchanged(object(2, "(21 cm)"))).isFalse();
+        assertThat(imported.isUnchanged(object(3, "(10 cm)"))).isFalse();
+
+        imported.markSeen(1);
+        imported.markSeen(3);
+
+        assertThat(imported.contains(5)).isTrue();
+        assertThat(imported.contains(3)).isFalse();
+        assertThat(imported.unseen()).containsExactly(2, 5);
+    }
+
+    private static MetObject object(long id, String dimensionRaw) {
+        return MetObject.builder().id(id).dimensionRaw(dimensionRaw).build();
+    }
+}
@@ -0,0 +1,137 @@
+package de.eblaas.museum;
+
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetObjectColumnsTest {
+
+    private static final int SIZE = 100_000;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testMatchesDoesItFit() {
+
+        var objects = objects();
+        var columns = columns(objects);
+
+        for (int query = 0; query < 200; query++) {
+            var boundary = boundary();
+            int limit = new int[]{1, 50, 1000, Integer.MAX_VALUE}[random.nextInt(4)];
+            long after = random.nextBoolean() ? Long.MIN_VALUE : random.nextInt(SIZE * 10);
+
+            var expected = objects.stream()
+                    .filter(obj -> obj.getId() > after && obj.getDimension().doesItFit(boundary))
+                    .limit(limit)
+                    .map(MetObjectColumnsTest::toString)
+                    .collect(Collectors.toList());
+            var actual = columns.listFitting(boundary, after, limit).stream()
+                    .map(MetObjectColumnsTest::toString)
+                    .collect(Collectors.toList());
+
+            assertThat(actual).as(boundary + " after " + after).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testPagesListAllFittingObjects() {
+
+        var objects = objects();
+        var columns = columns(objects);
+        var boundary = new DimensionBoundary();
+        boundary.setMinWidth(50.0);
+        boundary.setMaxWeight(1000.0);
+
+        var pages = new ArrayList<MetObject>();
+        var page = columns.listFitting(boundary, Long.MIN_VALUE, 1000);
+        while (!page.isEmpty()) {
+            pages.addAll(page);
+            page = columns.listFitting(boundary, page.get(page.size() - 1).getId(), 1000);
+        }
+
+        assertThat(pages.stream().map(MetObjectColumnsTest::toString).collect(Collectors.toList()))
+                .isEqualTo(objects.stream()
+                        .filter(obj -> obj.getDimension().doesItFit(boundary))
+                        .map(MetObjectColumnsTest::toString)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testNullBoundaryNeverFits() {
+
+        var columns = columns(List.of(MetObject.builder().id(1).dimensionRaw("(1 cm)")
+                .dimension(new Dimension(1, 1, -1, -1)).build()));
+        var boundary = new DimensionBoundary();
+
+        assertThat(columns.listFitting(boundary, Long.MIN_VALUE, 50)).hasSize(1);
+
+        boundary.setMaxWeight(null);
+
+        assertThat(columns.listFitting(boundary, Long.MIN_VALUE, 50)).isEmpty();
+    }
+
+    /**
+     * Objects with ascending, not consecutive ids.
+     */
+    private List<MetObject> objects() {
+        var objects = new ArrayList<MetObject>();
+        for (int i = 0; i < SIZE; i++) {
+            objects.add(MetObject.builder().id(i * 10L + random.nextInt(10)).dimensionRaw("raw " + i)
+                    .dimension(new Dimension(value(), value(), value(), value() * 10)).build());
+        }
+        return objects;
+    }
+
+    /**
+     * Loads the objects into columns in random order.
+     */
+    private MetObjectColumns columns(List<MetObject> objects) {
+        var shuffled = new ArrayList<>(objects);
+        Collections.shuffle(shuffled, random);
+        var columns = new MetObjectColumns(16);
+        shuffled.forEach(obj -> columns.add(obj.getId(), obj.dimensionHash(), obj.getDimension().getHeight(),
+                obj.getDimension().getWidth(), obj.getDimension().getDepth(), obj.getDimension().getWeight()));
+        columns.buildIndex();
+        return columns;
+    }
+
+    /**
+     * A dimension value, missing in about one of four cases.
+     */
+    private double value() {
+        return random.nextInt(4) == 0 ? -1 : random.nextInt(2000) / 10.0;
+    }
+
+    /**
+     * Boundaries with a random subset of the eight boundaries set.
+     */
+    private DimensionBoundary boundary() {
+        var boundary = new DimensionBoundary();
+        boundary.setMinHeight(bound(boundary.getMinHeight(), 200));
+        boundary.setMaxHeight(bound(boundary.getMaxHeight(), 200));
+        boundary.setMinWidth(bound(boundary.getMinWidth(), 200));
+        boundary.setMaxWidth(bound(boundary.getMaxWidth(), 200));
+        boundary.setMinDepth(bound(boundary.getMinDepth(), 200));
+        boundary.setMaxDepth(bound(boundary.getMaxDepth(), 200));
+        boundary.setMinWeight(bound(boundary.getMinWeight(), 2000));
+        boundary.setMaxWeight(bound(boundary.getMaxWeight(), 2000));
+        return boundary;
+    }
+
+    private Double bound(Double unbounded, int range) {
+        return random.nextBoolean() ? unbounded : random.nextInt(range * 2) / 2.0;
+    }
+
+    private static String toString(MetObject obj) {
+        return obj.getId() + "=" + obj.getDimension();
+    }
+}
@@ -0,0 +1,127 @@
+package de.eblaas.museum;
+
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetObjectCsvReaderTest {
+
+    private static final String HEADER = "Object Number,Is Highlight,Object ID,Title,Dimensions,Credit Line\r\n";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testProjectsIdAndDimensions() throws IOException {
+
+        var file = write("\uFEFF" + HEADER
+                + "1.2,False,12,\"Title, with comma\",\"Diam. 11/16 in. (1.7 cm)\",Gift\r\n"
+                + "1.3,False,13,\"Multi\r\nline \"\"title\"\"\",\"Image: (10 × 20 cm)\r\nSheet: (20 x 30 cm)\",\r\n"
+                + "\r\n"
+                + "1.4,False, 14 ,Title,,\"Gift, \\\"quoted\\\"\"\n"
+                + "1.5,False,15,Title,  \"(5 cm)\",Gift");
+
+        assertThat(readAll(file)).containsExactly(
+                "12=Diam. 11/16 in. (1.7 cm)",
+                "13=Image: (10 × 20 cm)\nSheet: (20 x 30 cm)",
+                "14=",
+                "15=(5 cm)");
+    }
+
+    @Test
+    void testMatchesOpenCsv() throws IOException {
+
+        var file = write(randomCsv(10_000));
+
+        assertThat(readAll(file)).isEqualTo(readAllWithOpenCsv(file));
+    }
+
+    @Test
+    void testPartitionsReadEachRecordOnce() throws IOException {
+
+        var file = write(randomCsv(1000));
+        var all = readAll(file);
+
+        for (int count : new int[]{1, 2, 3, 7, 2000}) {
+            long[] offsets = MetObjectCsvReader.partitions(file, count);
+            assertThat(offsets).hasSize(count + 1).isSorted();
+            assertThat(offsets[count]).isEqualTo(Files.size(file));
+
+            var partitioned = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                try (var reader = new MetObjectCsvReader(file, offsets[i], offsets[i + 1])) {
+                    reader.forEachRemaining(obj -> partitioned.add(obj.getId() + "=" + obj.getDimensionRaw()));
+                }
+            }
+            assertThat(partitioned).as("partitions=" + count).isEqualTo(all);
+        }
+    }
+
+    @Test
+    void testMissingIdColumn() throws IOException {
+
+        var file = write("Object Number,Dimensions\n1.2,(10 cm)\n");
+
+        assertThatThrownBy(() -> new MetObjectCsvReader(file)).isInstanceOf(IOException.class);
+    }
+
+    /**
+     * Records with quoted separators, quotes and line breaks, ids are the record numbers.
+     */
+    private static String randomCsv(int records) {
+        var random = new Random(42);
+        String[] values = {"", "plain", "with, comma", "with \"quote\"", "multi\r\nline", "multi\nline", "×–", "(10 x 20 cm)",
+                "  leading", "back\\slash"};
+        var csv = new StringBuilder(HEADER);
+        for (int i = 0; i < records; i++) {
+            var row = new ArrayList<String>();
+            for (int column = 0; column < 6; column++) {
+                var value = column == 2 ? String.valueOf(i) : values[random.nextInt(values.length)];
+                boolean quote = random.nextBoolean() || value.contains(",") || value.contains("\"") || value.contains("\n");
+                row.add(quote ? "\"" + value.replace("\"", "\"\"") + "\"" : value);
+            }
+            csv.append(String.join(",", row)).append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+        return csv.toString();
+    }
+
+    private Path write(String content) throws IOException {
+        return Files.writeString(tempDir.resolve("objects.csv"), content, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readAll(Path file) throws IOException {
+        var result = new ArrayList<String>();
+        try (var reader = new MetObjectCsvReader(file)) {
+            reader.forEachRemaining(obj -> result.add(obj.getId() + "=" + obj.getDimensionRaw()));
+        }
+        return result;
+    }
+
+    private static List<String> readAllWithOpenCsv(Path file) throws IOException {
+        var result = new ArrayList<String>();
+        try (var reader = new CSVReaderBuilder(Files.newBufferedReader(file))
+                .withCSVParser(new CSVParserBuilder().withIgnoreLeadingWhiteSpace(true).build())
+                .build()) {
+            var header = Arrays.asList(reader.readNext());
+            int id = header.indexOf(MetObjectCsvReader.ID_COLUMN), dimensions = header.indexOf(MetObjectCsvReader.DIMENSION_COLUMN);
+            for (String[] line : reader) {
+                result.add(Long.parseLong(line[id].trim()) + "=" + line[dimensions]);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+package de.eblaas.museum;
+
+
+import de.eblaas.museum.Dimension.DimensionBoundary;
+import de.eblaas.museum.Dimension.IdFitResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetObjectServiceTest {
+
+    private static final int SIZE = 3000;
+
+    private JdbcTemplate jdbcTemplate;
+    private MetObjectService service;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        service = new MetObjectService(jdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)),
+                new QueryMetrics(new SimpleMeterRegistry()));
+        service.initDb();
+
+        // objects with even ids, height = id
+        service.batchInsert(LongStream.range(0, SIZE)
+                .mapToObj(i -> MetObject.builder().id(i * 2).dimensionRaw("(" + i * 2 + " cm)")
+                        .dimension(new Dimension(i * 2, i * 2, -1, -1)).build())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testObjectsFitInRequestOrder() {
+
+        var ids = new ArrayList<Long>();
+        for (long id = 2 * SIZE + 10; id >= 0; id -= 3) {
+            ids.add(id);
+        }
+        ids.add(6L);
+        var boundary = new DimensionBoundary();
+        boundary.setMaxHeight(1000.0);
+
+        List<IdFitResult> results = service.doObjectsFit(ids, boundary, true);
+
+        assertThat(results).extracting(IdFitResult::getId).isEqualTo(ids);
+        for (IdFitResult result : results) {
+            boolean stored = result.getId() % 2 == 0 && result.getId() < 2 * SIZE;
+            assertThat(result.isFound()).as("found %s", result.getId()).isEqualTo(stored);
+            assertThat(result.isFits()).as("fits %s", result.getId()).isEqualTo(stored && result.getId() <= 1000);
+            assertThat(result.getObject() == null).isEqualTo(!stored);
+        }
+    }
+
+    @Test
+    void testUnknownObjectDoesNotFit() {
+
+        var boundary = new DimensionBoundary();
+
+        assertThat(service.doesItFit(2L, boundary, true).isFits()).isTrue();
+        var result = service.doesItFit(3L, boundary, true);
+        assertThat(result.isFits()).isFalse();
+        assertThat(result.getObject()).isNull();
+    }
+
+    @Test
+    void testLooksUpRawDimensionsOnlyIfRequested() {
+
+        var boundary = new DimensionBoundary();
+
+        var cached = service.doesItFit(4L, boundary, false).getObject();
+        assertThat(cached.getDimensionRaw()).isNull();
+        assertThat(service.listFittingObjects(boundary, null, 10, false))
+                .allMatch(result -> result.getObject().getDimensionRaw() == null);
+        // a copy of the cached object gets the text, the cached object is kept without
+        var withText = service.doesItFit(4L, boundary, true).getObject();
+        assertThat(withText.getDimensionRaw()).isEqualTo("(4 cm)");
+        assertThat(withText).isNotSameAs(cached);
+        assertThat(service.doesItFit(4L, boundary, false).getObject()).isSameAs(cached);
+        assertThat(cached.getDimensionRaw()).isNull();
+    }
+
+    @Test
+    void testQueriesOnlyLimitedDimensions() {
+
+        var boundary = new DimensionBoundary();
+        assertThat(FittingQuery.page(boundary, null, 50).sql)
+                .isEqualTo("select * from met_objects order by id limit ?");
+
+        boundary.setMaxWeight(5.0);
+        var query = FittingQuery.page(boundary, 10L, 50);
+        assertThat(query.sql).isEqualTo("select * from met_objects where id > ? and weight <= ? order by id limit ?");
+        assertThat(query.args).containsExactly(10L, 5.0, 50);
+
+        boundary.setMinHeight(100.0);
+        boundary.setMaxHeight(200.0);
+        assertThat(service.listFittingObjects(boundary, null, 10, true))
+                .extracting(result -> result.getObject().getId())
+                .containsExactly(100L, 102L, 104L, 106L, 108L, 110L, 112L, 114L, 116L, 118L);
+    }
+
+    @Test
+    void testPlansUseIndexOfLimitedDimension() {
+
+        service.analyze();
+
+        assertThat(plan(new DimensionBoundary())).contains("PRIMARY_KEY");
+
+        var height = new DimensionBoundary();
+        height.setMinHeight(10.0);
+        height.setMaxHeight(12.0);
+        assertThat(plan(height)).contains("PUBLIC.DIMENSIONS: HEIGHT >=");
+
+        var width = new DimensionBoundary();
+        width.setMinWidth(10.0);
+        assertThat(plan(width)).contains("PUBLIC.DIMENSION_WIDTH: WIDTH >=");
+
+        var depth = new DimensionBoundary();
+        depth.setMaxDepth(10.0);
+        assertThat(plan(depth)).contains("PUBLIC.DIMENSION_DEPTH: DEPTH <=");
+
+        var weight = new DimensionBoundary();
+        weight.setMinWeight(0.0);
+        weight.setMaxWeight(10.0);
+        assertThat(plan(weight)).contains("PUBLIC.DIMENSION_WEIGHT: WEIGHT >=");
+    }
+
+    @Test
+    void testStoresEachRawDimensionOnce() {
+
+        service.batchInsert(List.of(object(10_001, "(5 cm)"), object(10_003, "(5 cm)"), object(10_005, "(7 cm)")));
+
+        assertThat(dictionarySize()).isEqualTo(SIZE + 2);
+        assertThat(service.doesItFit(10_003L, new DimensionBoundary(), true).getObject().getDimensionRaw())
+                .isEqualTo("(5 cm)");
+        var boundary = new DimensionBoundary();
+        boundary.setMinHeight(4.0);
+        boundary.setMaxHeight(7.0);
+        var streamed = new ArrayList<String>();
+        service.streamFittingObjects(boundary, null, true,
+                result -> streamed.add(result.getObject().getDimensionRaw()));
+        assertThat(streamed).containsExactly("(4 cm)", "(6 cm)", "(5 cm)", "(5 cm)", "(7 cm)");
+
+        service.batchDelete(new long[]{10_005});
+        service.deleteUnusedDimensions();
+
+        assertThat(dictionarySize()).isEqualTo(SIZE + 1);
+    }
+
+    @Test
+    void testMovesRawDimensionsOfFormerVersionToDictionary() {
+
+        jdbcTemplate.execute("drop table met_objects");
+        jdbcTemplate.execute("drop table met_dimensions");
+        jdbcTemplate.execute("create table met_objects(id BIGINT PRIMARY KEY, dim VARCHAR(5000), dim_hash BIGINT, "
+                + "height DOUBLE PRECISION, width DOUBLE PRECISION, depth DOUBLE PRECISION, weight DOUBLE PRECISION)");
+        var object = object(1, "(5 cm)");
+        jdbcTemplate.update("insert into met_objects values(?, ?, ?, 5, 5, -1, -1)", 1, "(5 cm)", object.dimensionHash());
+        jdbcTemplate.update("insert into met_objects values(?, ?, ?, 5, 5, -1, -1)", 2, "(5 cm)", object.dimensionHash());
+
+        service.initDbIfMissing();
+
+        assertThat(dictionarySize()).isEqualTo(1);
+        assertThat(service.doesItFit(2L, new DimensionBoundary(), true).getObject().getDimensionRaw())
+                .isEqualTo("(5 cm)");
+    }
+
+    @Test
+    void testReadersSeeAllObjectsWhileStagingIsSwappedIn() throws Exception {
+
+        var counts = ConcurrentHashMap.<Integer>newKeySet();
+        var swapped = new AtomicBoolean();
+        var reader = CompletableFuture.runAsync(() -> {
+            while (!swapped.get()) {
+                counts.add(jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class));
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            service.initStaging();
+            service.bulkInsert(List.of(object(1, "(1 cm)"), object(3, "(3 cm)")), new HashSet<>());
+            service.swapStaging();
+        }
+        swapped.set(true);
+        reader.get(10, TimeUnit.SECONDS);
+
+        // the former or the staged objects, never a missing or partially loaded table
+        assertThat(counts).isSubsetOf(SIZE, 2);
+    }
+
+    @Test
+    void testRestoresAndStoresSnapshot() {
+
+        service.batchInsert(List.of(object(10_001, "(5 cm)")));
+        service.reload();
+        var version = service.version();
+        var snapshot = service.snapshot(100, 42, -1, true);
+
+        service.initDb();
+        service.reload();
+        service.restore(snapshot);
+
+        // the in-memory engine answers from the snapshot, the database is not changed
+        assertThat(service.version()).isEqualTo(version);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class)).isZero();
+
+        service.store(snapshot);
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_objects", Integer.class)).isEqualTo(SIZE + 1);
+        assertThat(dictionarySize()).isEqualTo(SIZE + 1);
+        var result = service.doesItFit(10_001L, new DimensionBoundary(), true);
+        assertThat(result.getObject().getDimensionRaw()).isEqualTo("(5 cm)");
+        assertThat(result.getObject().getDimension().getHeight()).isEqualTo(5);
+    }
+
+    @Test
+    void testStoreKeepsDatabaseStoringTheSnapshot() {
+
+        var snapshot = service.snapshot(100, 42, -1, true);
+        // rows replaced by loading the snapshot lose the mark
+        jdbcTemplate.execute("alter table met_objects add column mark INT DEFAULT 0");
+        jdbcTemplate.execute("update met_objects set mark = 1");
+
+        service.restore(snapshot);
+        service.store(snapshot);
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from met_objects where mark = 1", Integer.class))
+                .isEqualTo(SIZE);
+        var version = service.version();
+        service.reload();
+        assertThat(service.version()).isEqualTo(version);
+    }
+
+    @Test
+    void testVersionFollowsStoredObjects() {
+
+        assertThat(service.version()).isNull();
+        service.reload();
+        var version = service.version();
+
+        var snapshot = service.snapshot(100, 42, -1, true);
+        service.initDb();
+        service.restore(snapshot);
+        assertThat(service.version()).isEqualTo(version);
+
+        service.batchInsert(List.of(object(5, "(5 cm)")));
+        service.reload();
+        assertThat(service.version()).isNotEqualTo(version);
+    }
+
+    private static MetObject object(long id, String dimensionRaw) {
+        var size = Double.parseDouble(dimensionRaw.replaceAll("[^0-9]", ""));
+        return MetObject.builder().id(id).dimensionRaw(dimensionRaw).dimension(new Dimension(size, size, -1, -1)).build();
+    }
+
+    private Integer dictionarySize() {
+        return jdbcTemplate.queryForObject("select count(*) from met_dimensions", Integer.class);
+    }
+
+    private String plan(DimensionBoundary boundary) {
+        var query = FittingQuery.page(boundary, null, 50);
+        return jdbcTemplate.queryForObject("explain " + query.sql, String.class, query.args);
+    }
+}
@@ -0,0 +1,165 @@
+package de.eblaas.museum;
+
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class MetObjectsApiTest {
+
+    private MetObjectService service;
+    private QueryBulkhead bulkhead;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime()
+                + ";DB_CLOSE_DELAY=-1");
+        var registry = new SimpleMeterRegistry();
+        service = new MetObjectService(new JdbcTemplate(dataSource),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)), new QueryMetrics(registry));
+        service.initDb();
+        // height = id
+        service.batchInsert(LongStream.range(1, 10)
+                .mapToObj(id -> MetObject.builder().id(id).dimensionRaw("(" + id + " cm)")
+                        .dimension(new Dimension(id, id, -1, -1)).build())
+                .collect(Collectors.toList()));
+        service.reload();
+
+        // configured like the application, see MuseumServiceApplication
+        var objectMapper = new Jackson2ObjectMapperBuilder().filters(MetObject.fields(null));
+        bulkhead = new QueryBulkhead(2, 10, 1, registry);
+        var api = new MetObjectsApi(service, objectMapper.build(), bulkhead);
+        ReflectionTestUtils.setField(api, "queryTimeout", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(api, "streamTimeout", Duration.ofSeconds(30));
+        mvc = MockMvcBuilders.standaloneSetup(api)
+                .setMessageConverters(new ByteArrayHttpMessageConverter(),
+                        new MappingJackson2HttpMessageConverter(objectMapper.build()),
+                        new MappingJackson2CborHttpMessageConverter(objectMapper.factory(new CBORFactory()).build()))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testProjectsFields() throws Exception {
+
+        performAsync(get("/api/v1/objects/3").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.object.id").value(3))
+                .andExpect(jsonPath("$.object.dimensionRaw").value("(3 cm)"))
+                .andExpect(jsonPath("$.object.dimension.height").value(3.0));
+
+        performAsync(get("/api/v1/objects/?maxHeight=5&fields=id").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].object.id", contains(1, 2, 3, 4, 5)))
+                .andExpect(jsonPath("$[0].object.dimensionRaw").doesNotExist())
+                .andExpect(jsonPath("$[0].object.dimension").doesNotExist());
+
+        // streamed objects are written to the response directly, there is no result to dispatch
+        var stream = mvc.perform(get("/api/v1/objects/stream?minHeight=8&fields=id,dimensionRaw"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        await().atMost(10, TimeUnit.SECONDS).until(() -> stream.getContentAsString().endsWith("}}\n"));
+        assertThat(stream.getContentType()).isEqualTo(MetObjectsApi.APPLICATION_NDJSON_VALUE);
+        assertThat(stream.getContentAsString()).isEqualTo(
+                "{\"fits\":true,\"object\":{\"id\":8,\"dimensionRaw\":\"(8 cm)\"}}\n"
+                        + "{\"fits\":true,\"object\":{\"id\":9,\"dimensionRaw\":\"(9 cm)\"}}\n");
+    }
+
+    @Test
+    void testRejectsNullBoundaryValues() throws Exception {
+
+        mvc.perform(get("/api/v1/objects/?maxHeight=")).andExpect(status().isBadRequest());
+        mvc.perform(get("/api/v1/objects/stream?maxHeight=")).andExpect(status().isBadRequest());
+        mvc.perform(get("/api/v1/objects/stats?maxHeight=")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testNegotiatesCbor() throws Exception {
+
+        var response = performAsync(get("/api/v1/objects/3?fields=id,dimensionRaw")
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse();
+
+        var body = new ObjectMapper(new CBORFactory()).readTree(response.getContentAsByteArray());
+        assertThat(body.path("object").path("id").asLong()).isEqualTo(3);
+        assertThat(body.path("object").path("dimensionRaw").asText()).isEqualTo("(3 cm)");
+        assertThat(body.path("object").has("dimension")).isFalse();
+    }
+
+    @Test
+    void testAnswersUnchangedVersionWithNotModified() throws Exception {
+
+        var response = performAsync(get("/api/v1/objects/3").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn().getResponse();
+        var etag = response.getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+
+        mvc.perform(get("/api/v1/objects/3").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        // the same query in another encoding is another response
+        var cbor = performAsync(get("/api/v1/objects/3").accept(MediaType.APPLICATION_CBOR)
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertThat(cbor.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+
+        // an import changing an object changes the version
+        service.batchInsert(List.of(MetObject.builder().id(10).dimensionRaw("(10 cm)")
+                .dimension(new Dimension(10, 10, -1, -1)).build()));
+        service.reload();
+        performAsync(get("/api/v1/objects/3").accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * Perform an asynchronous request and dispatch its response.
+     */
+    private ResultActions performAsync(RequestBuilder request) throws Exception {
+        var started = mvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+        started.getAsyncResult(10_000);
+        return mvc.perform(asyncDispatch(started));
+    }
+}
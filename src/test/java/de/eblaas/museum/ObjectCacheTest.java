@@ -0,0 +1,52 @@
+package de.eblaas.museum;
+
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ObjectCacheTest {
+
+    @Test
+    void testReadThroughWithNotFound() {
+
+        var cache = new ObjectCache(1000);
+        var loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            for (long id = 0; id < 100; id++) {
+                var object = cache.get(id, key -> {
+                    loads.incrementAndGet();
+                    return key % 2 == 0 ? MetObject.builder().id(key).build() : null;
+                });
+                assertThat(object == null).isEqualTo(id % 2 == 1);
+                if (object != null) {
+                    assertThat(object.getId()).isEqualTo(id);
+                }
+            }
+        }
+
+        assertThat(loads.get()).isEqualTo(100);
+        assertThat(cache.misses()).isEqualTo(100);
+        assertThat(cache.hits()).isEqualTo(200);
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+        cache.get(0, key -> null);
+        assertThat(cache.misses()).isEqualTo(101);
+    }
+
+    @Test
+    void testSizeIsBounded() {
+
+        var cache = new ObjectCache(1000);
+        for (long id = 0; id < 100_000; id++) {
+            cache.get(id, key -> MetObject.builder().id(key).build());
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(1000);
+        assertThat(cache.evictions()).isEqualTo(100_000 - cache.size());
+    }
+}
@@ -0,0 +1,67 @@
+package de.eblaas.museum;
+
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReadsWrittenSnapshot() throws IOException {
+
+        var snapshot = new ObjectSnapshot(100, 42, -1, true, 0);
+        for (int i = 0; i < 1000; i++) {
+            snapshot.add(i * 3, i % 7, i, i / 2.0, -1, i * 10.0);
+        }
+        snapshot.addRaw(1, "12 x 3 in. (30.5 x 7.6 cm)");
+        snapshot.addRaw(2, "Diam. 5 cm; 100 g é");
+        snapshot.write(dir.resolve("objects.snapshot"));
+
+        var read = ObjectSnapshot.read(dir.resolve("objects.snapshot"));
+
+        assertThat(read.isSnapshotOf(100, 42, -1)).isTrue();
+        assertThat(read.isSnapshotOf(100, 43, -1)).isFalse();
+        assertThat(read.isSnapshotOf(100, 42, 500)).isFalse();
+        assertThat(read.size()).isEqualTo(1000);
+        assertThat(rows(read)).isEqualTo(rows(snapshot));
+        assertThat(read.hasRawDimensions()).isTrue();
+        assertThat(read.rawSize()).isEqualTo(2);
+        assertThat(read.rawHash(1)).isEqualTo(2);
+        assertThat(read.raw(1)).isEqualTo("Diam. 5 cm; 100 g é");
+    }
+
+    private static List<String> rows(ObjectSnapshot snapshot) {
+        var rows = new ArrayList<String>();
+        snapshot.forEach((id, dimHash, height, width, depth, weight) ->
+                rows.add(id + " " + dimHash + " " + height + " " + width + " " + depth + " " + weight));
+        return rows;
+    }
+
+    @Test
+    void testRejectsCorruptedSnapshot() throws IOException {
+
+        var snapshot = new ObjectSnapshot(100, 42, -1, false, 0);
+        snapshot.add(1, 2, 3, 4, 5, 6);
+        var file = dir.resolve("objects.snapshot");
+        snapshot.write(file);
+        assertThat(ObjectSnapshot.read(file).hasRawDimensions()).isFalse();
+
+        var bytes = Files.readAllBytes(file);
+        bytes[60] ^= 1;
+        Files.write(file, bytes);
+
+        assertThatThrownBy(() -> ObjectSnapshot.read(file)).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,95 @@
+package de.eblaas.museum;
+
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QueryBulkheadTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final QueryBulkhead bulkhead = new QueryBulkhead(2, 1, 1, registry);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void testIdenticalQueriesShareOneRun() {
+
+        var runs = new AtomicInteger();
+        var first = bulkhead.submit("a", () -> {
+            runs.incrementAndGet();
+            await();
+            return "result";
+        });
+        var second = bulkhead.submit("a", () -> "other");
+        release.countDown();
+
+        assertThat(first.join()).isEqualTo("result");
+        assertThat(second.join()).isEqualTo("result");
+        assertThat(runs).hasValue(1);
+        assertThat(registry.counter("museum.bulkhead.coalesced").count()).isEqualTo(1);
+
+        // finished queries are run again
+        assertThat(bulkhead.submit("a", () -> "again").join()).isEqualTo("again");
+    }
+
+    @Test
+    void testRejectsQueriesBeyondQueue() {
+
+        // 2 running and 1 waiting
+        var queries = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 3; i++) {
+            queries.add(bulkhead.submit(i, () -> {
+                await();
+                return "done";
+            }));
+        }
+
+        assertThatThrownBy(() -> bulkhead.submit(3, () -> "rejected"))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> bulkhead.stream(() -> {
+        })).isInstanceOf(RejectedExecutionException.class);
+        assertThat(registry.counter("museum.bulkhead.rejected").count()).isEqualTo(2);
+
+        release.countDown();
+        queries.forEach(query -> assertThat(query.join()).isEqualTo("done"));
+        assertThat(bulkhead.submit(3, () -> "accepted").join()).isEqualTo("accepted");
+    }
+
+    @Test
+    void testStreamsLeaveWorkersForQueries() {
+
+        var stream = bulkhead.stream(this::await);
+
+        assertThatThrownBy(() -> bulkhead.stream(() -> {
+        })).isInstanceOf(RejectedExecutionException.class);
+        assertThat(bulkhead.submit("query", () -> "result").join()).isEqualTo("result");
+
+        release.countDown();
+        stream.join();
+        assertThat(bulkhead.stream(() -> {
+        }).join()).isNull();
+    }
+
+    private void await() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}